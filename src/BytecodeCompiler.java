@@ -0,0 +1,1067 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// a class past what the class file format can hold: more than 65535 constants,
+// a string over 65535 bytes, or a method over 64 KB of code
+class ClassFileLimitException extends RuntimeException
+{
+    private static final long serialVersionUID = 1L;
+
+    ClassFileLimitException(String message)
+    {
+        super(message);
+    }
+}
+
+/*
+ * Minimal class file writer. Classes are emitted as version 49 so the verifier
+ * infers types itself and no StackMapTable has to be computed.
+ */
+class ClassFileWriter
+{
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    private final ByteArrayOutputStream members = new ByteArrayOutputStream();
+    private final DataOutputStream membersOut = new DataOutputStream(members);
+    private int fieldCount = 0;
+    private int methodCount = 0;
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<byte[]> methods = new ArrayList<>();
+
+    private final String className;
+    private final String superName;
+    private final String interfaceName;
+
+    ClassFileWriter(String className, String superName, String interfaceName)
+    {
+        this.className = className;
+        this.superName = superName;
+        this.interfaceName = interfaceName;
+    }
+
+    private int entry(String key, int tag, int slots, byte[] body)
+    {
+        Integer idx = poolIndex.get(key);
+        if (idx != null) return idx;
+        if (poolCount + slots > 0xffff) throw new ClassFileLimitException("constant pool is full");
+        try {
+            poolOut.writeByte(tag);
+            poolOut.write(body);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        idx = poolCount;
+        poolCount += slots;
+        poolIndex.put(key, idx);
+        return idx;
+    }
+
+    private static byte[] u2(int... values)
+    {
+        byte[] out = new byte[values.length * 2];
+        for (int i = 0; i < values.length; i++) {
+            out[i * 2] = (byte) (values[i] >> 8);
+            out[i * 2 + 1] = (byte) values[i];
+        }
+        return out;
+    }
+
+    int utf8(String s)
+    {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        try {
+            new DataOutputStream(b).writeUTF(s);
+        } catch (UTFDataFormatException e) {
+            throw new ClassFileLimitException("string constant too long");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return entry("U" + s, 1, 1, b.toByteArray());
+    }
+
+    int classRef(String name)
+    {
+        int n = utf8(name);
+        return entry("C" + name, 7, 1, u2(n));
+    }
+
+    int string(String s)
+    {
+        int n = utf8(s);
+        return entry("S" + s, 8, 1, u2(n));
+    }
+
+    int integer(int value)
+    {
+        return entry("I" + value, 3, 1, new byte[] {(byte) (value >> 24), (byte) (value >> 16), (byte) (value >> 8), (byte) value});
+    }
+
+    int doubleConst(double value)
+    {
+        long bits = Double.doubleToRawLongBits(value);
+        byte[] b = new byte[8];
+        for (int i = 0; i < 8; i++) b[i] = (byte) (bits >> (56 - 8 * i));
+        return entry("D" + bits, 6, 2, b);
+    }
+
+    private int nameAndType(String name, String desc)
+    {
+        int n = utf8(name);
+        int d = utf8(desc);
+        return entry("N" + name + ":" + desc, 12, 1, u2(n, d));
+    }
+
+    int fieldRef(String owner, String name, String desc)
+    {
+        int c = classRef(owner);
+        int nt = nameAndType(name, desc);
+        return entry("F" + owner + "." + name + ":" + desc, 9, 1, u2(c, nt));
+    }
+
+    int methodRef(String owner, String name, String desc, boolean isInterface)
+    {
+        int c = classRef(owner);
+        int nt = nameAndType(name, desc);
+        return entry((isInterface ? "J" : "M") + owner + "." + name + desc, isInterface ? 11 : 10, 1, u2(c, nt));
+    }
+
+    void addField(int access, String name, String desc)
+    {
+        fields.add(u2(access, utf8(name), utf8(desc), 0));
+        fieldCount++;
+    }
+
+    void addMethod(int access, String name, String desc, CodeBuffer code)
+    {
+        byte[] body = code.toByteArray();
+        if (body.length > 0xffff) throw new ClassFileLimitException("code of " + name + " too long");
+        if (methodCount == 0xffff) throw new ClassFileLimitException("too many methods");
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(b);
+        try {
+            out.write(u2(access, utf8(name), utf8(desc), 1, utf8("Code")));
+            out.writeInt(12 + body.length);
+            out.writeShort(code.maxStack);
+            out.writeShort(code.maxLocals);
+            out.writeInt(body.length);
+            out.write(body);
+            out.writeShort(0);
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        methods.add(b.toByteArray());
+        methodCount++;
+    }
+
+    byte[] toByteArray()
+    {
+        int thisIdx = classRef(className);
+        int superIdx = classRef(superName);
+        int interfaceIdx = classRef(interfaceName);
+        try {
+            membersOut.writeShort(fieldCount);
+            for (byte[] f : fields) membersOut.write(f);
+            membersOut.writeShort(methodCount);
+            for (byte[] m : methods) membersOut.write(m);
+            membersOut.writeShort(0);
+
+            ByteArrayOutputStream b = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(b);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(poolCount);
+            out.write(pool.toByteArray());
+            out.writeShort(0x0030); // ACC_FINAL | ACC_SUPER
+            out.writeShort(thisIdx);
+            out.writeShort(superIdx);
+            out.writeShort(1);
+            out.writeShort(interfaceIdx);
+            out.write(members.toByteArray());
+            return b.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
+
+class CodeBuffer
+{
+    static final int ALOAD_0 = 0x2a, ALOAD = 0x19, ASTORE = 0x3a, DLOAD = 0x18, DSTORE = 0x39, ILOAD = 0x15;
+    static final int ARETURN = 0xb0, RETURN = 0xb1, DUP = 0x59, POP = 0x57, AALOAD = 0x32, ACONST_NULL = 0x01;
+    static final int GETSTATIC = 0xb2, GETFIELD = 0xb4, PUTFIELD = 0xb5;
+    static final int INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8;
+    static final int NEW = 0xbb, CHECKCAST = 0xc0, DCONST_1 = 0x0f, DADD = 0x63, DCMPG = 0x98;
+    static final int IFEQ = 0x99, IFNE = 0x9a, IFGE = 0x9c, IFNULL = 0xc6, IFNONNULL = 0xc7, GOTO = 0xa7;
+    static final int TABLESWITCH = 0xaa;
+
+    private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+    private final List<int[]> fixups = new ArrayList<>();
+    private final List<Integer> labels = new ArrayList<>();
+    private final ClassFileWriter cw;
+    int maxStack = 12;
+    int maxLocals;
+
+    CodeBuffer(ClassFileWriter cw, int maxLocals)
+    {
+        this.cw = cw;
+        this.maxLocals = maxLocals;
+    }
+
+    int position()
+    {
+        return code.size();
+    }
+
+    void u1(int b)
+    {
+        code.write(b);
+    }
+
+    void u2(int v)
+    {
+        code.write(v >> 8);
+        code.write(v);
+    }
+
+    void u4(int v)
+    {
+        u2(v >> 16);
+        u2(v);
+    }
+
+    void op(int opcode)
+    {
+        u1(opcode);
+    }
+
+    void local(int opcode, int slot)
+    {
+        u1(opcode);
+        u1(slot);
+    }
+
+    void iconst(int value)
+    {
+        if (value >= -1 && value <= 5) u1(0x03 + value);
+        else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) { u1(0x10); u1(value); }
+        else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) { u1(0x11); u2(value); }
+        else { u1(0x13); u2(cw.integer(value)); }
+    }
+
+    void ldcString(String s)
+    {
+        u1(0x13);
+        u2(cw.string(s));
+    }
+
+    void ldcDouble(double d)
+    {
+        u1(0x14);
+        u2(cw.doubleConst(d));
+    }
+
+    void type(int opcode, String className)
+    {
+        u1(opcode);
+        u2(cw.classRef(className));
+    }
+
+    void field(int opcode, String owner, String name, String desc)
+    {
+        u1(opcode);
+        u2(cw.fieldRef(owner, name, desc));
+    }
+
+    void invoke(int opcode, String owner, String name, String desc)
+    {
+        u1(opcode);
+        u2(cw.methodRef(owner, name, desc, false));
+    }
+
+    int newLabel()
+    {
+        labels.add(-1);
+        return labels.size() - 1;
+    }
+
+    void mark(int label)
+    {
+        labels.set(label, position());
+    }
+
+    void jump(int opcode, int label)
+    {
+        fixups.add(new int[] {position(), position() + 1, label, 2});
+        u1(opcode);
+        u2(0);
+    }
+
+    void tableswitch(int[] targets, int defaultLabel)
+    {
+        int start = position();
+        u1(TABLESWITCH);
+        while (position() % 4 != 0) u1(0);
+        fixups.add(new int[] {start, position(), defaultLabel, 4});
+        u4(0);
+        u4(0);
+        u4(targets.length - 1);
+        for (int target : targets) {
+            fixups.add(new int[] {start, position(), target, 4});
+            u4(0);
+        }
+    }
+
+    byte[] toByteArray()
+    {
+        byte[] out = code.toByteArray();
+        for (int[] f : fixups) {
+            int offset = labels.get(f[2]) - f[0];
+            if (f[3] == 2) {
+                if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)
+                    throw new ClassFileLimitException("branch offset out of range in compiled FLEX method");
+                out[f[1]] = (byte) (offset >> 8);
+                out[f[1] + 1] = (byte) offset;
+            } else {
+                out[f[1]] = (byte) (offset >> 24);
+                out[f[1] + 1] = (byte) (offset >> 16);
+                out[f[1] + 2] = (byte) (offset >> 8);
+                out[f[1] + 3] = (byte) offset;
+            }
+        }
+        return out;
+    }
+}
+
+/*
+ * Translates a FLEX AST into a hidden JVM class. Every node becomes a static
+ * method n<k>(Context) returning an RTResult, so children are reached through
+ * direct invokestatic calls and operators are bound at compile time instead of
+ * going through the instanceof ladder in Interpreter.visit. The generated class
+ * implements CompiledCode; one instance exists per entry point (the program and
+ * each task body).
+ */
+class BytecodeCompiler
+{
+    private static final String CLASS_NAME = "FlexCompiledProgram";
+    private static final String NODE_DESC = "(LContext;)LRTResult;";
+    private static final String K_DESC = "[Ljava/lang/Object;";
+    private static final String CHUNK_DESC = "(LContext;Ljava/util/ArrayList;)LRTResult;";
+    private static final int LIST_CHUNK = 256;
+
+    private final ClassFileWriter cw = new ClassFileWriter(CLASS_NAME, "java/lang/Object", "CompiledCode");
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new IdentityHashMap<>();
+    private final List<Node> pending = new ArrayList<>();
+    private final Map<Node, Integer> methodIndex = new IdentityHashMap<>();
+    private final List<Integer> entries = new ArrayList<>();
+    private final Map<FuncDefNode, Integer> bodySlots = new IdentityHashMap<>();
+    private int chunkCount = 0;
+
+    public static CompiledCode compile(Node root)
+    {
+        CompiledCode code = new BytecodeCompiler().build(root);
+        // a program too large for one class file runs on the closure engine instead
+        return (code != null) ? code : ClosureCompiler.compile(root);
+    }
+
+    // null when the program does not fit in a class file
+    private CompiledCode build(Node root)
+    {
+        byte[] bytes;
+        try {
+            constant(BytecodeRuntime.INTERPRETER);
+            entries.add(methodFor(root));
+            for (int i = 0; i < pending.size(); i++) emitNode(pending.get(i));
+
+            cw.addField(0x0008, "K", K_DESC);
+            cw.addField(0x0012, "entry", "I");
+            emitConstructor();
+            emitExecute();
+            bytes = cw.toByteArray();
+        } catch (ClassFileLimitException e) {
+            return null;
+        }
+
+        MethodHandles.Lookup lookup;
+        try {
+            lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+        } catch (ClassFormatError | IllegalArgumentException e) {
+            return null;
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("could not load compiled FLEX program: " + e, e);
+        }
+
+        try {
+            Class<?> cls = lookup.lookupClass();
+            Object[] k = constants.toArray();
+            lookup.findStaticVarHandle(cls, "K", Object[].class).set(k);
+
+            MethodHandle ctor = lookup.findConstructor(cls, MethodType.methodType(void.class, int.class));
+            List<CompiledCode> codes = new ArrayList<>();
+            for (int i = 0; i < entries.size(); i++) codes.add((CompiledCode) ctor.invoke(i));
+            for (Map.Entry<FuncDefNode, Integer> slot : bodySlots.entrySet())
+                k[slot.getValue()] = codes.get(entries.indexOf(methodIndex.get(slot.getKey().bodyNode)));
+            return codes.get(0);
+        } catch (Throwable e) {
+            throw new RuntimeException("could not load compiled FLEX program: " + e, e);
+        }
+    }
+
+    private int constant(Object value)
+    {
+        Integer idx = constantIndex.get(value);
+        if (idx != null) return idx;
+        constants.add(value);
+        constantIndex.put(value, constants.size() - 1);
+        return constants.size() - 1;
+    }
+
+    private int reserveConstant()
+    {
+        constants.add(null);
+        return constants.size() - 1;
+    }
+
+    private int methodFor(Node node)
+    {
+        Integer idx = methodIndex.get(node);
+        if (idx != null) return idx;
+        methodIndex.put(node, pending.size());
+        pending.add(node);
+        return pending.size() - 1;
+    }
+
+    private void emitConstructor()
+    {
+        CodeBuffer c = new CodeBuffer(cw, 2);
+        c.op(CodeBuffer.ALOAD_0);
+        c.invoke(CodeBuffer.INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+        c.op(CodeBuffer.ALOAD_0);
+        c.local(CodeBuffer.ILOAD, 1);
+        c.field(CodeBuffer.PUTFIELD, CLASS_NAME, "entry", "I");
+        c.op(CodeBuffer.RETURN);
+        cw.addMethod(0x0001, "<init>", "(I)V", c);
+    }
+
+    private void emitExecute()
+    {
+        CodeBuffer c = new CodeBuffer(cw, 2);
+        int[] targets = new int[entries.size()];
+        for (int i = 0; i < targets.length; i++) targets[i] = c.newLabel();
+        c.op(CodeBuffer.ALOAD_0);
+        c.field(CodeBuffer.GETFIELD, CLASS_NAME, "entry", "I");
+        c.tableswitch(targets, targets[0]);
+        for (int i = 0; i < targets.length; i++) {
+            c.mark(targets[i]);
+            c.local(CodeBuffer.ALOAD, 1);
+            c.invoke(CodeBuffer.INVOKESTATIC, CLASS_NAME, "n" + entries.get(i), NODE_DESC);
+            c.op(CodeBuffer.ARETURN);
+        }
+        cw.addMethod(0x0001, "execute", NODE_DESC, c);
+    }
+
+    // ---- code generation helpers; local 0 always holds the Context ----
+
+    private void loadConstant(CodeBuffer c, Object value, String type)
+    {
+        c.field(CodeBuffer.GETSTATIC, CLASS_NAME, "K", K_DESC);
+        c.iconst(constant(value));
+        c.op(CodeBuffer.AALOAD);
+        c.type(CodeBuffer.CHECKCAST, type);
+    }
+
+    // result of child node into local slot, returning it early when it should propagate
+    private void callChild(CodeBuffer c, Node child, int slot)
+    {
+        c.op(CodeBuffer.ALOAD_0);
+        c.invoke(CodeBuffer.INVOKESTATIC, CLASS_NAME, "n" + methodFor(child), NODE_DESC);
+        c.local(CodeBuffer.ASTORE, slot);
+        c.local(CodeBuffer.ALOAD, slot);
+        c.invoke(CodeBuffer.INVOKEVIRTUAL, "RTResult", "shouldReturn", "()Z");
+        int ok = c.newLabel();
+        c.jump(CodeBuffer.IFEQ, ok);
+        c.local(CodeBuffer.ALOAD, slot);
+        c.op(CodeBuffer.ARETURN);
+        c.mark(ok);
+    }
+
+    private void loadValue(CodeBuffer c, int slot)
+    {
+        c.local(CodeBuffer.ALOAD, slot);
+        c.field(CodeBuffer.GETFIELD, "RTResult", "value", "LValue;");
+    }
+
+    // children report through the same Context.result, so a value has to be taken out
+    // of it before the next child runs
+    private void callChildValue(CodeBuffer c, Node child, int resultSlot, int valueSlot)
+    {
+        callChild(c, child, resultSlot);
+        loadValue(c, resultSlot);
+        c.local(CodeBuffer.ASTORE, valueSlot);
+    }
+
+    private void loadResultRegister(CodeBuffer c)
+    {
+        c.op(CodeBuffer.ALOAD_0);
+        c.field(CodeBuffer.GETFIELD, "Context", "result", "LRTResult;");
+    }
+
+    private void emitNode(Node node)
+    {
+        CodeBuffer c = new CodeBuffer(cw, 8);
+
+        if (node instanceof NumberNode || node instanceof StringNode || node instanceof VarAccessNode
+                || node instanceof ContinueNode || node instanceof BreakNode)
+        {
+            String type = node.getClass().getSimpleName();
+            loadConstant(c, BytecodeRuntime.INTERPRETER, "Interpreter");
+            loadConstant(c, node, type);
+            c.op(CodeBuffer.ALOAD_0);
+            c.invoke(CodeBuffer.INVOKEVIRTUAL, "Interpreter", "visit_" + type, "(L" + type + ";LContext;)LRTResult;");
+            c.op(CodeBuffer.ARETURN);
+        }
+        else if (node instanceof UnaryOpNode unaryOpNode) emitUnaryOp(c, unaryOpNode);
+        else if (node instanceof BinOpNode binOpNode) emitBinOp(c, binOpNode);
+        else if (node instanceof VarAssignNode varAssignNode) emitVarAssign(c, varAssignNode);
+        else if (node instanceof ListNode listNode) emitList(c, listNode);
+        else if (node instanceof IfNode ifNode) emitIf(c, ifNode);
+        else if (node instanceof ForNode forNode) emitFor(c, forNode);
+        else if (node instanceof WhileNode whileNode) emitWhile(c, whileNode);
+        else if (node instanceof FuncDefNode funcDefNode) emitFuncDef(c, funcDefNode);
+        else if (node instanceof CallNode callNode) emitCall(c, callNode);
+        else if (node instanceof ReturnNode returnNode) emitReturn(c, returnNode);
+        else if (node instanceof InvariantNode invariantNode) emitInvariant(c, invariantNode);
+        else if (node instanceof FusedNode fusedNode) emitFused(c, fusedNode);
+        else throw new RuntimeException("no bytecode translation for " + node.getClass().getSimpleName() + " defined.");
+
+        cw.addMethod(0x000a, "n" + methodIndex.get(node), NODE_DESC, c);
+    }
+
+    private void emitUnaryOp(CodeBuffer c, UnaryOpNode node)
+    {
+        callChild(c, node.node, 1);
+        if (node.opTok.type.equals(Tokens.TT_MINUS))
+        {
+            loadValue(c, 1);
+            c.field(CodeBuffer.GETSTATIC, "IntegerValue", "MINUS_ONE", "LIntegerValue;");
+            loadResultRegister(c);
+            c.invoke(CodeBuffer.INVOKEVIRTUAL, "Value", "multedBy", "(LValue;LRTResult;)LRTResult;");
+        }
+        else if (node.opTok.matches(Tokens.TT_KEYWORD, "not"))
+        {
+            loadValue(c, 1);
+            loadResultRegister(c);
+            c.invoke(CodeBuffer.INVOKEVIRTUAL, "Value", "notted", "(LRTResult;)LRTResult;");
+        }
+        else
+        {
+            c.local(CodeBuffer.ALOAD, 1);
+            c.op(CodeBuffer.ARETURN);
+            return;
+        }
+        c.op(CodeBuffer.ALOAD_0);
+        c.invoke(CodeBuffer.INVOKEVIRTUAL, "RTResult", "inContext", "(LContext;)LRTResult;");
+        c.op(CodeBuffer.ARETURN);
+    }
+
+    private static String binOpMethod(Token opTok)
+    {
+        if (opTok.type.equals(Tokens.TT_PLUS)) return "addedTo";
+        if (opTok.type.equals(Tokens.TT_MINUS)) return "subbedBy";
+        if (opTok.type.equals(Tokens.TT_MULT)) return "multedBy";
+        if (opTok.type.equals(Tokens.TT_DIV)) return "divedBy";
+        if (opTok.type.equals(Tokens.TT_POW)) return "powedBy";
+        if (opTok.type.equals(Tokens.TT_EQ)) return "getComparisonEq";
+        if (opTok.type.equals(Tokens.TT_NE)) return "getComparisonNe";
+        if (opTok.type.equals(Tokens.TT_LT)) return "getComparisonLt";
+        if (opTok.type.equals(Tokens.TT_GT)) return "getComparisonGt";
+        if (opTok.type.equals(Tokens.TT_LTE)) return "getComparisonLte";
+        if (opTok.type.equals(Tokens.TT_GTE)) return "getComparisonGte";
+        if (opTok.matches(Tokens.TT_KEYWORD, "and")) return "andedBy";
+        if (opTok.matches(Tokens.TT_KEYWORD, "or")) return "oredBy";
+        throw new RuntimeException("no bytecode translation for operator " + opTok.repr() + " defined.");
+    }
+
+    private void emitBinOp(CodeBuffer c, BinOpNode node)
+    {
+        callChildValue(c, node.left, 1, 2);
+        callChildValue(c, node.right, 1, 3);
+        c.local(CodeBuffer.ALOAD, 2);
+        c.local(CodeBuffer.ALOAD, 3);
+        loadResultRegister(c);
+        c.invoke(CodeBuffer.INVOKEVIRTUAL, "Value", binOpMethod(node.opTok), "(LValue;LRTResult;)LRTResult;");
+        loadConstant(c, node, "Node");
+        c.op(CodeBuffer.ALOAD_0);
+        c.invoke(CodeBuffer.INVOKESTATIC, "BytecodeRuntime", "positioned", "(LRTResult;LNode;LContext;)LRTResult;");
+        c.op(CodeBuffer.ARETURN);
+    }
+
+    private void emitInvariant(CodeBuffer c, InvariantNode node)
+    {
+        int compute = c.newLabel();
+        loadConstant(c, node, "InvariantNode");
+        c.op(CodeBuffer.ALOAD_0);
+        c.invoke(CodeBuffer.INVOKEVIRTUAL, "InvariantNode", "reuse", NODE_DESC);
+        c.op(CodeBuffer.DUP);
+        c.jump(CodeBuffer.IFNULL, compute);
+        c.op(CodeBuffer.ARETURN);
+        c.mark(compute);
+        c.op(CodeBuffer.POP);
+        loadConstant(c, node, "InvariantNode");
+        c.op(CodeBuffer.ALOAD_0);
+        c.invoke(CodeBuffer.INVOKESTATIC, CLASS_NAME, "n" + methodFor(node.expr), NODE_DESC);
+        c.op(CodeBuffer.ALOAD_0);
+        c.invoke(CodeBuffer.INVOKEVIRTUAL, "InvariantNode", "remember", "(LRTResult;LContext;)LRTResult;");
+        c.op(CodeBuffer.ARETURN);
+    }
+
+    private void emitFused(CodeBuffer c, FusedNode node)
+    {
+        int fallback = c.newLabel();
+        loadConstant(c, node, "FusedNode");
+        c.op(CodeBuffer.ALOAD_0);
+        c.invoke(CodeBuffer.INVOKEVIRTUAL, "FusedNode", "execute", NODE_DESC);
+        c.op(CodeBuffer.DUP);
+        c.jump(CodeBuffer.IFNULL, fallback);
+        c.op(CodeBuffer.ARETURN);
+        c.mark(fallback);
+        c.op(CodeBuffer.POP);
+        c.op(CodeBuffer.ALOAD_0);
+        c.invoke(CodeBuffer.INVOKESTATIC, CLASS_NAME, "n" + methodFor(node.original), NODE_DESC);
+        c.op(CodeBuffer.ARETURN);
+    }
+
+    private void emitVarAssign(CodeBuffer c, VarAssignNode node)
+    {
+        c.op(CodeBuffer.ALOAD_0);
+        c.invoke(CodeBuffer.INVOKESTATIC, CLASS_NAME, "n" + methodFor(node.valueNode), NODE_DESC);
+        c.local(CodeBuffer.ASTORE, 1);
+        c.op(CodeBuffer.ALOAD_0);
+        c.field(CodeBuffer.GETFIELD, "Context", "symbolTable", "LSymbolTable;");
+        c.iconst(node.slot);
+        c.ldcString(node.varNameTok.value.toString());
+        loadValue(c, 1);
+        c.invoke(CodeBuffer.INVOKEVIRTUAL, "SymbolTable", "set", "(ILjava/lang/String;LValue;)V");
+        c.local(CodeBuffer.ALOAD, 1);
+        c.op(CodeBuffer.ARETURN);
+    }
+
+    private void emitList(CodeBuffer c, ListNode node)
+    {
+        boolean collects = !node.discardsValue;
+        if (collects)
+        {
+            c.type(CodeBuffer.NEW, "java/util/ArrayList");
+            c.op(CodeBuffer.DUP);
+            c.invoke(CodeBuffer.INVOKESPECIAL, "java/util/ArrayList", "<init>", "()V");
+        }
+        else c.op(CodeBuffer.ACONST_NULL);
+        c.local(CodeBuffer.ASTORE, 1);
+
+        // a long list runs as chunk methods called one after another, keeping each method
+        // under the 64 KB code limit and small enough for the JIT to compile
+        List<Node> elements = node.elementNodes;
+        if (elements.size() <= LIST_CHUNK) emitElements(c, elements, collects);
+        else for (int from = 0; from < elements.size(); from += LIST_CHUNK)
+        {
+            String chunk = emitChunk(elements.subList(from, Math.min(from + LIST_CHUNK, elements.size())), collects);
+            int next = c.newLabel();
+            c.op(CodeBuffer.ALOAD_0);
+            c.local(CodeBuffer.ALOAD, 1);
+            c.invoke(CodeBuffer.INVOKESTATIC, CLASS_NAME, chunk, CHUNK_DESC);
+            c.op(CodeBuffer.DUP);
+            c.jump(CodeBuffer.IFNULL, next);
+            c.op(CodeBuffer.ARETURN);
+            c.mark(next);
+            c.op(CodeBuffer.POP);
+        }
+
+        if (!collects)
+        {
+            c.op(CodeBuffer.ALOAD_0);
+            c.invoke(CodeBuffer.INVOKESTATIC, "BytecodeRuntime", "nullResult", "(LContext;)LRTResult;");
+            c.op(CodeBuffer.ARETURN);
+            return;
+        }
+        c.local(CodeBuffer.ALOAD, 1);
+        loadConstant(c, node, "Node");
+        c.op(CodeBuffer.ALOAD_0);
+        c.invoke(CodeBuffer.INVOKESTATIC, "BytecodeRuntime", "list", "(Ljava/util/List;LNode;LContext;)LRTResult;");
+        c.op(CodeBuffer.ARETURN);
+    }
+
+    // elements in order, their values added to the ArrayList in local 1 when collected
+    private void emitElements(CodeBuffer c, List<Node> elements, boolean collects)
+    {
+        for (Node element : elements)
+        {
+            callChild(c, element, 2);
+            if (!collects) continue;
+            c.local(CodeBuffer.ALOAD, 1);
+            loadValue(c, 2);
+            c.invoke(CodeBuffer.INVOKEVIRTUAL, "java/util/ArrayList", "add", "(Ljava/lang/Object;)Z");
+            c.op(CodeBuffer.POP);
+        }
+    }
+
+    // chunk method c<k>(Context, ArrayList) giving null once its elements have run,
+    // or the result one of them returned early with
+    private String emitChunk(List<Node> elements, boolean collects)
+    {
+        CodeBuffer c = new CodeBuffer(cw, 3);
+        emitElements(c, elements, collects);
+        c.op(CodeBuffer.ACONST_NULL);
+        c.op(CodeBuffer.ARETURN);
+        String name = "c" + chunkCount++;
+        cw.addMethod(0x000a, name, CHUNK_DESC, c);
+        return name;
+    }
+
+    private void emitCase(CodeBuffer c, Node body, boolean isStatementBlock)
+    {
+        callChild(c, body, 1);
+        c.local(CodeBuffer.ALOAD, 1);
+        c.iconst(isStatementBlock ? 1 : 0);
+        c.invoke(CodeBuffer.INVOKESTATIC, "BytecodeRuntime", "caseResult", "(LRTResult;Z)LRTResult;");
+        c.op(CodeBuffer.ARETURN);
+    }
+
+    private void emitIf(CodeBuffer c, IfNode node)
+    {
+        for (ConditionTuple ct : node.cases)
+        {
+            int next = c.newLabel();
+            int ok = c.newLabel();
+            c.op(CodeBuffer.ALOAD_0);
+            c.invoke(CodeBuffer.INVOKESTATIC, CLASS_NAME, "n" + methodFor(ct.condition), NODE_DESC);
+            c.local(CodeBuffer.ASTORE, 1);
+            c.local(CodeBuffer.ALOAD, 1);
+            c.field(CodeBuffer.GETFIELD, "RTResult", "err", "LErrors;");
+            c.jump(CodeBuffer.IFNULL, ok);
+            c.local(CodeBuffer.ALOAD, 1);
+            c.op(CodeBuffer.ARETURN);
+            c.mark(ok);
+            loadValue(c, 1);
+            c.invoke(CodeBuffer.INVOKEVIRTUAL, "Value", "isTrue", "()Z");
+            c.jump(CodeBuffer.IFEQ, next);
+            emitCase(c, ct.statementsOrExpression, ct.isStatementBlock);
+            c.mark(next);
+        }
+        if (node.elseCase != null)
+        {
+            emitCase(c, node.elseCase.statementsOrExpression, node.elseCase.isStatementBlock);
+        }
+        else
+        {
+            c.op(CodeBuffer.ALOAD_0);
+            c.invoke(CodeBuffer.INVOKESTATIC, "BytecodeRuntime", "nullResult", "(LContext;)LRTResult;");
+            c.op(CodeBuffer.ARETURN);
+        }
+    }
+
+    // mirrors Interpreter.visit_ForNode/visit_WhileNode body handling; local 1 holds the last result,
+    // local 2 the collected results when the loop evaluates to them; a counted loop whose counter
+    // is unread stores it before the body's give or error leaves
+    private void emitLoopBody(CodeBuffer c, Node body, int head, int exit, boolean increments, boolean collects, ForNode unreadCounter)
+    {
+        c.op(CodeBuffer.ALOAD_0);
+        c.invoke(CodeBuffer.INVOKESTATIC, CLASS_NAME, "n" + methodFor(body), NODE_DESC);
+        c.local(CodeBuffer.ASTORE, 1);
+        c.local(CodeBuffer.ALOAD, 1);
+        c.invoke(CodeBuffer.INVOKESTATIC, "BytecodeRuntime", "escapesLoop", "(LRTResult;)Z");
+        int stay = c.newLabel();
+        c.jump(CodeBuffer.IFEQ, stay);
+        if (unreadCounter != null) emitStoreCounter(c, unreadCounter);
+        c.local(CodeBuffer.ALOAD, 1);
+        c.op(CodeBuffer.ARETURN);
+        c.mark(stay);
+        c.local(CodeBuffer.ALOAD, 1);
+        c.field(CodeBuffer.GETFIELD, "RTResult", "loop_should_continue", "Z");
+        c.jump(CodeBuffer.IFNE, head);
+        c.local(CodeBuffer.ALOAD, 1);
+        c.field(CodeBuffer.GETFIELD, "RTResult", "loop_should_break", "Z");
+        c.jump(CodeBuffer.IFNE, exit);
+        if (collects)
+        {
+            c.local(CodeBuffer.ALOAD, 2);
+            loadValue(c, 1);
+            c.invoke(CodeBuffer.INVOKEVIRTUAL, "java/util/ArrayList", "add", "(Ljava/lang/Object;)Z");
+            c.op(CodeBuffer.POP);
+        }
+        if (increments)
+        {
+            c.local(CodeBuffer.DLOAD, 3);
+            c.op(CodeBuffer.DCONST_1);
+            c.op(CodeBuffer.DADD);
+            c.local(CodeBuffer.DSTORE, 3);
+        }
+        c.jump(CodeBuffer.GOTO, head);
+    }
+
+    // local 2 starts out null when the loop does not collect
+    private void emitLoopElements(CodeBuffer c, Node node)
+    {
+        if (node.isStatementBlock)
+        {
+            c.type(CodeBuffer.NEW, "java/util/ArrayList");
+            c.op(CodeBuffer.DUP);
+            c.invoke(CodeBuffer.INVOKESPECIAL, "java/util/ArrayList", "<init>", "()V");
+        }
+        else c.op(CodeBuffer.ACONST_NULL);
+        c.local(CodeBuffer.ASTORE, 2);
+    }
+
+    private void emitLoopResult(CodeBuffer c, Node node)
+    {
+        c.local(CodeBuffer.ALOAD, 1);
+        c.local(CodeBuffer.ALOAD, 2);
+        loadConstant(c, node, "Node");
+        c.op(CodeBuffer.ALOAD_0);
+        c.invoke(CodeBuffer.INVOKESTATIC, "BytecodeRuntime", "loopResult", "(LRTResult;Ljava/util/List;LNode;LContext;)LRTResult;");
+        c.op(CodeBuffer.ARETURN);
+    }
+
+    private void emitFor(CodeBuffer c, ForNode node)
+    {
+        // locals: 1 result, 2 elements, 3-4 counter, 5 start value, 6 end value,
+        // 7-8 counter of the latest iteration when the variable is only stored as the loop stops
+        if (node.counterUnread) c.maxLocals = 9;
+        emitLoopElements(c, node);
+        callChild(c, node.startValueNode, 1);
+        loadValue(c, 1);
+        c.local(CodeBuffer.ASTORE, 5);
+        callChild(c, node.endValueNode, 1);
+        loadValue(c, 1);
+        c.local(CodeBuffer.ASTORE, 6);
+        if (node.stepValueNode != null) callChild(c, node.stepValueNode, 1);
+
+        c.local(CodeBuffer.ALOAD, 5);
+        c.type(CodeBuffer.CHECKCAST, "NumberValue");
+        c.field(CodeBuffer.GETFIELD, "NumberValue", "value", "D");
+        c.local(CodeBuffer.DSTORE, 3);
+        if (node.counterUnread)
+        {
+            c.field(CodeBuffer.GETSTATIC, "java/lang/Double", "NaN", "D");
+            c.local(CodeBuffer.DSTORE, 7);
+        }
+
+        int head = c.newLabel();
+        int exit = c.newLabel();
+        c.mark(head);
+        c.local(CodeBuffer.DLOAD, 3);
+        c.local(CodeBuffer.ALOAD, 6);
+        c.type(CodeBuffer.CHECKCAST, "NumberValue");
+        c.field(CodeBuffer.GETFIELD, "NumberValue", "value", "D");
+        c.op(CodeBuffer.DCMPG);
+        c.jump(CodeBuffer.IFGE, exit);
+
+        if (node.counterUnread)
+        {
+            c.local(CodeBuffer.DLOAD, 3);
+            c.local(CodeBuffer.DSTORE, 7);
+        }
+        else
+        {
+            c.op(CodeBuffer.ALOAD_0);
+            c.field(CodeBuffer.GETFIELD, "Context", "symbolTable", "LSymbolTable;");
+            c.iconst(node.slot);
+            c.ldcString(node.varNameTok.value.toString());
+            c.local(CodeBuffer.ALOAD, 5);
+            c.local(CodeBuffer.DLOAD, 3);
+            c.invoke(CodeBuffer.INVOKESTATIC, "BytecodeRuntime", "counter", "(LValue;D)LNumberValue;");
+            c.invoke(CodeBuffer.INVOKEVIRTUAL, "SymbolTable", "set", "(ILjava/lang/String;LValue;)V");
+        }
+
+        ForNode unreadCounter = node.counterUnread ? node : null;
+        emitLoopBody(c, node.bodyNode, head, exit, true, node.isStatementBlock, unreadCounter);
+        c.mark(exit);
+        if (unreadCounter != null) emitStoreCounter(c, unreadCounter);
+        emitLoopResult(c, node);
+    }
+
+    private void emitStoreCounter(CodeBuffer c, ForNode node)
+    {
+        c.op(CodeBuffer.ALOAD_0);
+        loadConstant(c, node, "ForNode");
+        c.local(CodeBuffer.ALOAD, 5);
+        c.local(CodeBuffer.DLOAD, 7);
+        c.invoke(CodeBuffer.INVOKESTATIC, "BytecodeRuntime", "storeCounter", "(LContext;LForNode;LValue;D)V");
+    }
+
+    private void emitWhile(CodeBuffer c, WhileNode node)
+    {
+        emitLoopElements(c, node);
+
+        int head = c.newLabel();
+        int exit = c.newLabel();
+        c.mark(head);
+        callChild(c, node.conditionNode, 1);
+        loadValue(c, 1);
+        c.invoke(CodeBuffer.INVOKEVIRTUAL, "Value", "isTrue", "()Z");
+        c.jump(CodeBuffer.IFEQ, exit);
+        emitLoopBody(c, node.bodyNode, head, exit, false, node.isStatementBlock, null);
+        c.mark(exit);
+        emitLoopResult(c, node);
+    }
+
+    private void emitFuncDef(CodeBuffer c, FuncDefNode node)
+    {
+        methodFor(node.bodyNode);
+        entries.add(methodIndex.get(node.bodyNode));
+        int slot = reserveConstant();
+        bodySlots.put(node, slot);
+
+        loadConstant(c, node, "FuncDefNode");
+        c.op(CodeBuffer.ALOAD_0);
+        c.field(CodeBuffer.GETSTATIC, CLASS_NAME, "K", K_DESC);
+        c.iconst(slot);
+        c.op(CodeBuffer.AALOAD);
+        c.type(CodeBuffer.CHECKCAST, "CompiledCode");
+        c.invoke(CodeBuffer.INVOKESTATIC, "BytecodeRuntime", "funcDef", "(LFuncDefNode;LContext;LCompiledCode;)LRTResult;");
+        c.op(CodeBuffer.ARETURN);
+    }
+
+    private void emitCall(CodeBuffer c, CallNode node)
+    {
+        int evaluated = c.newLabel();
+        loadConstant(c, node, "CallNode");
+        c.op(CodeBuffer.ALOAD_0);
+        c.invoke(CodeBuffer.INVOKEVIRTUAL, "CallNode", "cachedVariable", "(LContext;)LFunction;");
+        c.local(CodeBuffer.ASTORE, 4);
+        c.local(CodeBuffer.ALOAD, 4);
+        c.jump(CodeBuffer.IFNONNULL, evaluated);
+        callChildValue(c, node.nodeToCall, 1, 4);
+        c.mark(evaluated);
+        c.type(CodeBuffer.NEW, "java/util/ArrayList");
+        c.op(CodeBuffer.DUP);
+        c.invoke(CodeBuffer.INVOKESPECIAL, "java/util/ArrayList", "<init>", "()V");
+        c.local(CodeBuffer.ASTORE, 2);
+        for (Node argNode : node.argNodes)
+        {
+            callChild(c, argNode, 3);
+            c.local(CodeBuffer.ALOAD, 2);
+            loadValue(c, 3);
+            c.invoke(CodeBuffer.INVOKEVIRTUAL, "java/util/ArrayList", "add", "(Ljava/lang/Object;)Z");
+            c.op(CodeBuffer.POP);
+        }
+        loadConstant(c, node, "CallNode");
+        c.local(CodeBuffer.ALOAD, 4);
+        c.local(CodeBuffer.ALOAD, 2);
+        c.op(CodeBuffer.ALOAD_0);
+        c.invoke(CodeBuffer.INVOKESTATIC, "BytecodeRuntime", "call", "(LCallNode;LValue;Ljava/util/List;LContext;)LRTResult;");
+        c.op(CodeBuffer.ARETURN);
+    }
+
+    private void emitReturn(CodeBuffer c, ReturnNode node)
+    {
+        if (node.returnNode != null)
+        {
+            c.op(CodeBuffer.ALOAD_0);
+            c.invoke(CodeBuffer.INVOKESTATIC, CLASS_NAME, "n" + methodFor(node.returnNode), NODE_DESC);
+            c.local(CodeBuffer.ASTORE, 1);
+            c.local(CodeBuffer.ALOAD, 1);
+            loadValue(c, 1);
+            c.invoke(CodeBuffer.INVOKEVIRTUAL, "RTResult", "give", "(LValue;)LRTResult;");
+        }
+        else
+        {
+            loadResultRegister(c);
+            c.field(CodeBuffer.GETSTATIC, "NumberValue", "NULL", "LNumberValue;");
+            c.invoke(CodeBuffer.INVOKEVIRTUAL, "RTResult", "successReturn", "(LValue;)LRTResult;");
+        }
+        c.op(CodeBuffer.ARETURN);
+    }
+}
+
+/*
+ * Helpers called from generated code. Each one finishes a node exactly the way
+ * the matching Interpreter.visit_* method does, so both backends agree.
+ */
+class BytecodeRuntime
+{
+    static final Interpreter INTERPRETER = new Interpreter();
+
+    static RTResult positioned(RTResult opResult, Node node, Context context)
+    {
+        if (opResult.err != null) return opResult.inContext(context);
+        opResult.value = opResult.value.setPos(node.pos_start, node.pos_end);
+        return opResult;
+    }
+
+    static NumberValue counter(Value startValue, double i)
+    {
+        return startValue instanceof IntegerValue ? IntegerValue.valueOf((long) i) : new NumberValue(i);
+    }
+
+    static void storeCounter(Context context, ForNode node, Value startValue, double lastI)
+    {
+        Interpreter.storeCounter(node, context, startValue instanceof IntegerValue, (long) lastI, lastI);
+    }
+
+    static RTResult list(List<Value> elements, Node node, Context context)
+    {
+        return context.result.success(new ListValue(elements).setContext(context).setPos(node.pos_start, node.pos_end));
+    }
+
+    static RTResult caseResult(RTResult res, boolean isStatementBlock)
+    {
+        return res.success(isStatementBlock ? (Value) NumberValue.NULL : res.value);
+    }
+
+    static RTResult nullResult(Context context)
+    {
+        return context.result.success(NumberValue.NULL);
+    }
+
+    static boolean escapesLoop(RTResult res)
+    {
+        return res.shouldReturn() && !res.loop_should_continue && !res.loop_should_break;
+    }
+
+    static RTResult loopResult(RTResult res, List<Value> elements, Node node, Context context)
+    {
+        if (node.isStatementBlock) {
+            return res.success(new ListValue(elements).setContext(context).setPos(node.pos_start, node.pos_end));
+        } else {
+            return res.success(NumberValue.NULL);
+        }
+    }
+
+    static RTResult funcDef(FuncDefNode node, Context context, CompiledCode body)
+    {
+        RTResult res = INTERPRETER.visit_FuncDefNode(node, context);
+        if (res.err != null) return res;
+        ((Function) res.value).compiledBody = body;
+        return res;
+    }
+
+    static RTResult call(CallNode node, Value callee, List<Value> args, Context context)
+    {
+        RTResult res = context.result;
+        Function cached = node.cachedTask(callee);
+        Value valueToCall = (cached != null) ? callee : callee.copy().setPos(node.pos_start, node.pos_end);
+        if (node.tail && valueToCall instanceof Function function) return res.successTailCall(function, args);
+
+        RTResult callResult = (cached != null) ? cached.invoke(args, node.callerOf(callee, context), node) : node.cacheTask(valueToCall, args).execute(args);
+        Value val = res.register(callResult.inContext(context));
+        if (res.shouldReturn()) return res;
+        Value returnValue = val.copy().setPos(node.pos_start, node.pos_end).setContext(context);
+
+        return res.success(returnValue);
+    }
+}
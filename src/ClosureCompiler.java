@@ -0,0 +1,444 @@
+import java.util.ArrayList;
+import java.util.List;
+
+interface BinaryOperation
+{
+    RTResult apply(Value left, Value right, RTResult res);
+}
+
+/*
+ * Converts the AST into a tree of CompiledCode closures in a single pass.
+ * Operators, variable names and child closures are resolved here once, so
+ * executing a closure never re-dispatches on the node type or compares token
+ * type strings. Every closure returns exactly what the matching
+ * Interpreter.visit_* method would.
+ */
+class ClosureCompiler
+{
+    static final Interpreter INTERPRETER = new Interpreter();
+
+    public static CompiledCode compile(Node node)
+    {
+        if(node instanceof NumberNode numberNode)
+        {
+            NumberValue constant = numberNode.constant;
+            return context -> context.result.success(constant);
+        }
+        else if(node instanceof StringNode stringNode)
+        {
+            return context -> INTERPRETER.visit_StringNode(stringNode, context);
+        }
+        else if(node instanceof VarAccessNode varAccessNode)
+        {
+            return context -> INTERPRETER.visit_VarAccessNode(varAccessNode, context);
+        }
+        else if(node instanceof UnaryOpNode unaryOpNode)
+        {
+            return compile_UnaryOpNode(unaryOpNode);
+        }
+        else if(node instanceof BinOpNode binOpNode)
+        {
+            return compile_BinOpNode(binOpNode);
+        }
+        else if(node instanceof VarAssignNode varAssignNode)
+        {
+            return compile_VarAssignNode(varAssignNode);
+        }
+        else if(node instanceof ListNode listNode)
+        {
+            return compile_ListNode(listNode);
+        }
+        else if(node instanceof IfNode ifNode)
+        {
+            return compile_IfNode(ifNode);
+        }
+        else if(node instanceof ForNode forNode)
+        {
+            return compile_ForNode(forNode);
+        }
+        else if(node instanceof WhileNode whileNode)
+        {
+            return compile_WhileNode(whileNode);
+        }
+        else if(node instanceof FuncDefNode funcDefNode)
+        {
+            return compile_FuncDefNode(funcDefNode);
+        }
+        else if(node instanceof CallNode callNode)
+        {
+            return compile_CallNode(callNode);
+        }
+        else if(node instanceof ReturnNode returnNode)
+        {
+            return compile_ReturnNode(returnNode);
+        }
+        else if(node instanceof InvariantNode invariantNode)
+        {
+            return compile_InvariantNode(invariantNode);
+        }
+        else if(node instanceof FusedNode fusedNode)
+        {
+            return compile_FusedNode(fusedNode);
+        }
+        else if(node instanceof ContinueNode)
+        {
+            return context -> context.result.successContinue();
+        }
+        else if(node instanceof BreakNode)
+        {
+            return context -> context.result.successBreak();
+        }
+        else
+            throw new RuntimeException("no compile_" + node.getClass().getSimpleName() + " method defined.");
+    }
+
+    static BinaryOperation binaryOperation(Token opTok)
+    {
+        if(opTok.type.equals(Tokens.TT_PLUS)) return Value::addedTo;
+        if(opTok.type.equals(Tokens.TT_MINUS)) return Value::subbedBy;
+        if(opTok.type.equals(Tokens.TT_MULT)) return Value::multedBy;
+        if(opTok.type.equals(Tokens.TT_DIV)) return Value::divedBy;
+        if(opTok.type.equals(Tokens.TT_POW)) return Value::powedBy;
+        if(opTok.type.equals(Tokens.TT_EQ)) return Value::getComparisonEq;
+        if(opTok.type.equals(Tokens.TT_NE)) return Value::getComparisonNe;
+        if(opTok.type.equals(Tokens.TT_LT)) return Value::getComparisonLt;
+        if(opTok.type.equals(Tokens.TT_GT)) return Value::getComparisonGt;
+        if(opTok.type.equals(Tokens.TT_LTE)) return Value::getComparisonLte;
+        if(opTok.type.equals(Tokens.TT_GTE)) return Value::getComparisonGte;
+        if(opTok.matches(Tokens.TT_KEYWORD, "and")) return Value::andedBy;
+        if(opTok.matches(Tokens.TT_KEYWORD, "or")) return Value::oredBy;
+        throw new RuntimeException("no operation for " + opTok.repr() + " defined.");
+    }
+
+    static CompiledCode compile_UnaryOpNode(UnaryOpNode node)
+    {
+        CompiledCode operand = compile(node.node);
+
+        if(node.opTok.type.equals(Tokens.TT_MINUS))
+        {
+            return context -> {
+                RTResult res = operand.execute(context);
+                if(res.shouldReturn()) return res;
+                return res.value.multedBy(IntegerValue.MINUS_ONE, context.result).inContext(context);
+            };
+        }
+        else if(node.opTok.matches(Tokens.TT_KEYWORD, "not"))
+        {
+            return context -> {
+                RTResult res = operand.execute(context);
+                if(res.shouldReturn()) return res;
+                return res.value.notted(context.result).inContext(context);
+            };
+        }
+        return operand;
+    }
+
+    static CompiledCode compile_InvariantNode(InvariantNode node)
+    {
+        CompiledCode expr = compile(node.expr);
+        return context -> {
+            RTResult known = node.reuse(context);
+            if(known != null) return known;
+            return node.remember(expr.execute(context), context);
+        };
+    }
+
+    static CompiledCode compile_FusedNode(FusedNode node)
+    {
+        CompiledCode original = compile(node.original);
+        // increments and comparisons are numeric trees, which NumericFastPath already runs unboxed
+        if(!(node instanceof IndexNode)) return original;
+        return context -> {
+            RTResult res = node.execute(context);
+            return res != null ? res : original.execute(context);
+        };
+    }
+
+    static CompiledCode compile_BinOpNode(BinOpNode node)
+    {
+        CompiledCode boxed = compile_BoxedBinOpNode(node);
+        if(!NumericCode.isNumericTree(node)) return boxed;
+        return new NumericFastPath(node, boxed);
+    }
+
+    static CompiledCode compile_BoxedBinOpNode(BinOpNode node)
+    {
+        CompiledCode left = compile(node.left);
+        CompiledCode right = compile(node.right);
+        BinaryOperation operation = binaryOperation(node.opTok);
+        Position posStart = node.pos_start, posEnd = node.pos_end;
+
+        return context -> {
+            RTResult res = left.execute(context);
+            if(res.shouldReturn()) return res;
+            Value leftValue = res.value;
+            res = right.execute(context);
+            if(res.shouldReturn()) return res;
+
+            RTResult result = operation.apply(leftValue, res.value, context.result);
+            if(result.err != null) return result.inContext(context);
+            result.value = result.value.setPos(posStart, posEnd);
+            return result;
+        };
+    }
+
+    static CompiledCode compile_VarAssignNode(VarAssignNode node)
+    {
+        String varName = node.varNameTok.value.toString();
+        int slot = node.slot;
+        CompiledCode value = compile(node.valueNode);
+
+        return context -> {
+            RTResult res = value.execute(context);
+            context.symbolTable.set(slot, varName, res.value);
+            return res;
+        };
+    }
+
+    static CompiledCode compile_ListNode(ListNode node)
+    {
+        CompiledCode[] elementCodes = compileAll(node.elementNodes);
+
+        if(node.discardsValue)
+        {
+            return context -> {
+                for(CompiledCode elementCode : elementCodes)
+                {
+                    RTResult res = elementCode.execute(context);
+                    if(res.shouldReturn()) return res;
+                }
+                return context.result.success(NumberValue.NULL);
+            };
+        }
+
+        return context -> {
+            List<Value> elements = new ArrayList<>(elementCodes.length);
+            for(CompiledCode elementCode : elementCodes)
+            {
+                RTResult res = elementCode.execute(context);
+                if(res.shouldReturn()) return res;
+                elements.add(res.value);
+            }
+            return context.result.success(new ListValue(elements).setContext(context).setPos(node.pos_start, node.pos_end));
+        };
+    }
+
+    static CompiledCode compile_IfNode(IfNode node)
+    {
+        int caseCount = node.cases.size();
+        CompiledCode[] conditions = new CompiledCode[caseCount];
+        NumericFastPath[] numericConditions = new NumericFastPath[caseCount];
+        CompiledCode[] bodies = new CompiledCode[caseCount];
+        boolean[] statementBlocks = new boolean[caseCount];
+        for(int i = 0; i < caseCount; i++)
+        {
+            ConditionTuple ct = node.cases.get(i);
+            conditions[i] = compile(ct.condition);
+            if(conditions[i] instanceof NumericFastPath numericCondition) numericConditions[i] = numericCondition;
+            bodies[i] = compile(ct.statementsOrExpression);
+            statementBlocks[i] = ct.isStatementBlock;
+        }
+        CompiledCode elseBody = node.elseCase != null ? compile(node.elseCase.statementsOrExpression) : null;
+        boolean elseIsStatementBlock = node.elseCase != null && node.elseCase.isStatementBlock;
+
+        return context -> {
+            for(int i = 0; i < caseCount; i++)
+            {
+                int truth = numericConditions[i] != null ? numericConditions[i].test(context) : NumericFastPath.BOXED;
+                if(truth == NumericFastPath.BOXED)
+                {
+                    RTResult res = conditions[i].execute(context);
+                    if(res.err != null) return res;
+                    truth = res.value.isTrue() ? NumericFastPath.TRUE : NumericFastPath.FALSE;
+                }
+
+                if(truth == NumericFastPath.TRUE)
+                {
+                    RTResult res = bodies[i].execute(context);
+                    if(res.shouldReturn()) return res;
+                    return res.success(statementBlocks[i] ? (Value) NumberValue.NULL : res.value);
+                }
+            }
+            if(elseBody != null)
+            {
+                RTResult res = elseBody.execute(context);
+                if(res.shouldReturn()) return res;
+                return res.success(elseIsStatementBlock ? (Value) NumberValue.NULL : res.value);
+            }
+            return context.result.success(NumberValue.NULL);
+        };
+    }
+
+    static CompiledCode compile_ForNode(ForNode node)
+    {
+        String varName = node.varNameTok.value.toString();
+        int slot = node.slot;
+        CompiledCode startCode = compile(node.startValueNode);
+        CompiledCode endCode = compile(node.endValueNode);
+        CompiledCode stepCode = node.stepValueNode != null ? compile(node.stepValueNode) : null;
+        CompiledCode body = compile(node.bodyNode);
+
+        boolean collects = node.isStatementBlock;
+        boolean counterUnread = node.counterUnread;
+
+        return context -> {
+            List<Value> elements = collects ? new ArrayList<>() : null;
+
+            RTResult res = startCode.execute(context);
+            if(res.shouldReturn()) return res;
+            Value startValue = res.value;
+
+            res = endCode.execute(context);
+            if(res.shouldReturn()) return res;
+            Value endValue = res.value;
+
+            // the step expression is evaluated for its effects only, like visit_ForNode
+            if(stepCode != null)
+            {
+                res = stepCode.execute(context);
+                if(res.shouldReturn()) return res;
+            }
+
+            double i = ((NumberValue) startValue).value;
+            double end = ((NumberValue) endValue).value;
+            boolean integral = startValue instanceof IntegerValue;
+            long n = integral ? ((IntegerValue) startValue).intValue : 0;
+
+            double lastI = Double.NaN;
+            long lastN = 0;
+            while(i < end)
+            {
+                if(counterUnread)
+                {
+                    lastI = i;
+                    lastN = n;
+                }
+                else context.symbolTable.set(slot, varName, integral ? IntegerValue.valueOf(n) : new NumberValue(i));
+
+                res = body.execute(context);
+                if(res.shouldReturn() && !res.loop_should_continue && !res.loop_should_break)
+                {
+                    Interpreter.storeCounter(node, context, integral, lastN, lastI);
+                    return res;
+                }
+                if(res.loop_should_continue) continue;
+                if(res.loop_should_break) break;
+
+                if(collects) elements.add(res.value);
+                i += 1;
+                n += 1;
+            }
+            Interpreter.storeCounter(node, context, integral, lastN, lastI);
+            return loopResult(node, res, elements, context);
+        };
+    }
+
+    static CompiledCode compile_WhileNode(WhileNode node)
+    {
+        CompiledCode condition = compile(node.conditionNode);
+        NumericFastPath numericCondition = condition instanceof NumericFastPath fastPath ? fastPath : null;
+        CompiledCode body = compile(node.bodyNode);
+        boolean collects = node.isStatementBlock;
+
+        return context -> {
+            List<Value> elements = collects ? new ArrayList<>() : null;
+            RTResult res = context.result;
+
+            while(true)
+            {
+                int truth = numericCondition != null ? numericCondition.test(context) : NumericFastPath.BOXED;
+                if(truth == NumericFastPath.BOXED)
+                {
+                    res = condition.execute(context);
+                    if(res.shouldReturn()) return res;
+                    truth = res.value.isTrue() ? NumericFastPath.TRUE : NumericFastPath.FALSE;
+                }
+                if(truth == NumericFastPath.FALSE) break;
+
+                res = body.execute(context);
+                if(res.shouldReturn() && !res.loop_should_continue && !res.loop_should_break) return res;
+                if(res.loop_should_continue) continue;
+                if(res.loop_should_break) break;
+
+                if(collects) elements.add(res.value);
+            }
+            return loopResult(node, res, elements, context);
+        };
+    }
+
+    static RTResult loopResult(Node node, RTResult res, List<Value> elements, Context context)
+    {
+        if(node.isStatementBlock)
+            return res.success(new ListValue(elements).setContext(context).setPos(node.pos_start, node.pos_end));
+        return res.success(NumberValue.NULL);
+    }
+
+    static CompiledCode compile_FuncDefNode(FuncDefNode node)
+    {
+        CompiledCode body = compile(node.bodyNode);
+
+        return context -> {
+            RTResult res = INTERPRETER.visit_FuncDefNode(node, context);
+            if (res.err != null) return res;
+            ((Function) res.value).compiledBody = body;
+            return res;
+        };
+    }
+
+    static CompiledCode compile_CallNode(CallNode node)
+    {
+        CompiledCode callee = compile(node.nodeToCall);
+        CompiledCode[] argCodes = compileAll(node.argNodes);
+        Position posStart = node.pos_start, posEnd = node.pos_end;
+        boolean tail = node.tail;
+
+        return context -> {
+            RTResult res;
+            Function cached = node.cachedVariable(context);
+            Value calleeValue = cached;
+            if(cached == null)
+            {
+                res = callee.execute(context);
+                if(res.shouldReturn()) return res;
+                calleeValue = res.value;
+                cached = node.cachedTask(calleeValue);
+            }
+            Value valueToCall = (cached != null) ? calleeValue : calleeValue.copy().setPos(posStart, posEnd);
+
+            List<Value> args = new ArrayList<>(argCodes.length);
+            for(CompiledCode argCode : argCodes)
+            {
+                res = argCode.execute(context);
+                if(res.shouldReturn()) return res;
+                args.add(res.value);
+            }
+
+            if(tail && valueToCall instanceof Function function) return context.result.successTailCall(function, args);
+
+            // the callee reports through its own frame's result
+            res = (cached != null) ? cached.invoke(args, node.callerOf(calleeValue, context), node) : node.cacheTask(valueToCall, args).execute(args);
+            res = res.inContext(context);
+            if(res.shouldReturn()) return res;
+            return context.result.success(res.value.copy().setPos(posStart, posEnd).setContext(context));
+        };
+    }
+
+    static CompiledCode compile_ReturnNode(ReturnNode node)
+    {
+        if(node.returnNode == null)
+            return context -> context.result.successReturn(NumberValue.NULL);
+
+        CompiledCode value = compile(node.returnNode);
+        return context -> {
+            RTResult res = value.execute(context);
+            return res.give(res.value);
+        };
+    }
+
+    static CompiledCode[] compileAll(List<Node> nodes)
+    {
+        CompiledCode[] codes = new CompiledCode[nodes.size()];
+        for(int i = 0; i < codes.length; i++) codes[i] = compile(nodes.get(i));
+        return codes;
+    }
+}
@@ -1,8 +1,12 @@
+import java.util.ArrayList;
+import java.util.List;
+
 class StringWithArrows
 {
     static String sta(String text, Position pos_start, Position pos_end)
     {
         String result = "";
+        if (text == null) return result; // lexed from a reader, the text is not kept
 
         int idxStart = Math.max(text.substring(0, pos_start.idx).lastIndexOf('\n'), 0);
         int idxEnd = text.indexOf('\n', idxStart + 1);
@@ -91,16 +95,29 @@ class RTError extends Errors
 
     String generate_traceback()
     {
-        String result = "";
+        // collected innermost first, so a deep recursion is not copied once per frame
+        List<String> frames = new ArrayList<>();
         Position pos = pos_start;
         Context ctx = context;
 
         while(ctx != null)
         {
-            result = String.format("File %s, line %s, in %s\n", pos.fn, String.valueOf(pos.ln + 1), ctx.displayName) + result;
+            frames.add(String.format("File %s, line %s, in %s\n", pos.fn, String.valueOf(pos.ln + 1), ctx.displayName));
             pos = ctx.parentEntryPos;
             ctx = ctx.parent;
         }
-        return "Traceback (most recent call last):\n" + result;
+        StringBuilder result = new StringBuilder("Traceback (most recent call last):\n");
+        for (int i = frames.size() - 1; i >= 0; i--) result.append(frames.get(i));
+        return result.toString();
+    }
+}
+
+// a limit the program ran into, such as the recursion depth: unlike other runtime
+// errors it is not dropped by the `give` it is raised under, so a runaway program stops
+class LimitError extends RTError
+{
+    public LimitError(Position pos_start, Position pos_end, String details, Context context)
+    {
+        super(pos_start, pos_end, details, context);
     }
 }
@@ -0,0 +1,146 @@
+/*
+ * Superinstructions: shapes common enough in FLEX loops that the Optimizer
+ * replaces them with one node that does the whole job in a single step. Their
+ * variables are read as stored, without the positioned copy a VarAccessNode
+ * hands out, and nothing goes through the result register in between. Each
+ * keeps the node it stands for; execute gives null whenever the values are not
+ * the kinds it handles, and the engine runs that node instead, so errors and
+ * every other case come out exactly as before.
+ */
+abstract class FusedNode extends Node
+{
+    final Node original;
+
+    FusedNode(Node original) {
+        super(original.pos_start, original.pos_end);
+        this.original = original;
+    }
+
+    abstract RTResult execute(Context context);
+
+    static boolean isOperand(Node node) {
+        return node instanceof NumberNode || node instanceof VarAccessNode;
+    }
+
+    // the value of a literal or variable without copying it, null when it is not defined
+    static Value operand(Node node, Context context) {
+        if (node instanceof NumberNode numberNode) return numberNode.constant;
+        VarAccessNode varAccessNode = (VarAccessNode) node;
+        return context.symbolTable.get(varAccessNode.slot, varAccessNode.varNameTok.value.toString());
+    }
+
+    @Override
+    public String toString()
+    {
+        return "(" + getClass().getSimpleName() + ", " + original + ")";
+    }
+}
+
+// `this x is x + k` and `this x is x - k` on numbers
+class IncrementNode extends FusedNode
+{
+    final VarAssignNode assign;
+    final BinOpNode operation;
+    final boolean subtracts;
+
+    IncrementNode(VarAssignNode assign) {
+        super(assign);
+        this.assign = assign;
+        this.operation = (BinOpNode) assign.valueNode;
+        this.subtracts = operation.opTok.type.equals(Tokens.TT_MINUS);
+    }
+
+    static boolean fits(VarAssignNode node) {
+        return node.valueNode instanceof BinOpNode binOpNode
+            && (binOpNode.opTok.type.equals(Tokens.TT_PLUS) || binOpNode.opTok.type.equals(Tokens.TT_MINUS))
+            && binOpNode.left instanceof VarAccessNode target
+            && target.varNameTok.value.equals(node.varNameTok.value)
+            && isOperand(binOpNode.right);
+    }
+
+    @Override
+    RTResult execute(Context context) {
+        if (!(operand(operation.left, context) instanceof NumberValue current)) return null;
+        if (!(operand(operation.right, context) instanceof NumberValue amount)) return null;
+
+        NumberValue result = null;
+        if (current instanceof IntegerValue left && amount instanceof IntegerValue right) {
+            try {
+                result = new IntegerValue(subtracts ? Math.subtractExact(left.intValue, right.intValue) : Math.addExact(left.intValue, right.intValue));
+            } catch (ArithmeticException overflow) {
+                // double arithmetic, like IntegerValue.addedTo
+            }
+        }
+        if (result == null) result = new NumberValue(subtracts ? current.value - amount.value : current.value + amount.value);
+
+        // what the operator would have given: it works on a copy read in this context
+        result.setPos(operation.pos_start, operation.pos_end);
+        result.setContext(context);
+        context.symbolTable.set(assign.slot, assign.varNameTok.value.toString(), result);
+        return context.result.success(result);
+    }
+}
+
+// a comparison of literals and variables deciding an if or an until: only its truth is read,
+// so it gives the shared 0 or 1 instead of a positioned copy
+class CompareNode extends FusedNode
+{
+    final BinOpNode comparison;
+    final String type;
+
+    CompareNode(BinOpNode comparison) {
+        super(comparison);
+        this.comparison = comparison;
+        this.type = comparison.opTok.type;
+    }
+
+    static boolean fits(Node node) {
+        return node instanceof BinOpNode binOpNode && NumericCode.isComparison(binOpNode.opTok)
+            && isOperand(binOpNode.left) && isOperand(binOpNode.right);
+    }
+
+    @Override
+    RTResult execute(Context context) {
+        if (!(operand(comparison.left, context) instanceof NumberValue left)) return null;
+        if (!(operand(comparison.right, context) instanceof NumberValue right)) return null;
+
+        boolean truth;
+        if (left instanceof IntegerValue a && right instanceof IntegerValue b) {
+            long x = a.intValue, y = b.intValue;
+            truth = type.equals(Tokens.TT_EQ) ? x == y : type.equals(Tokens.TT_NE) ? x != y
+                : type.equals(Tokens.TT_LT) ? x < y : type.equals(Tokens.TT_GT) ? x > y
+                : type.equals(Tokens.TT_LTE) ? x <= y : x >= y;
+        } else {
+            double x = left.value, y = right.value;
+            truth = type.equals(Tokens.TT_EQ) ? x == y : type.equals(Tokens.TT_NE) ? x != y
+                : type.equals(Tokens.TT_LT) ? x < y : type.equals(Tokens.TT_GT) ? x > y
+                : type.equals(Tokens.TT_LTE) ? x <= y : x >= y;
+        }
+        return context.result.success(IntegerValue.valueOf(truth ? 1 : 0));
+    }
+}
+
+// `list / i`: the element is taken from the list as stored
+class IndexNode extends FusedNode
+{
+    final BinOpNode operation;
+
+    IndexNode(BinOpNode operation) {
+        super(operation);
+        this.operation = operation;
+    }
+
+    static boolean fits(BinOpNode node) {
+        return node.opTok.type.equals(Tokens.TT_DIV) && node.left instanceof VarAccessNode && isOperand(node.right);
+    }
+
+    @Override
+    RTResult execute(Context context) {
+        if (!(operand(operation.left, context) instanceof ListValue list)) return null;
+        if (!(operand(operation.right, context) instanceof NumberValue index)) return null;
+
+        long i = ListValue.index(index);
+        if (i < 0 || i >= list.size()) return null;
+        return context.result.success(list.get((int) i).setPos(operation.pos_start, operation.pos_end));
+    }
+}
@@ -0,0 +1,406 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/*
+ * Parses programs that mostly repeat the last one, as the editor sends after each
+ * change. The text is compared with the last one that parsed: the tokens before
+ * the first changed character are kept, lexing starts again at the last of them
+ * that began before it, and stops at the first token boundary past the last
+ * changed character where the old text also began a token; the old tokens from
+ * there on are moved by the change in length. Top-level statements are reused
+ * the same way: those before the change that the parser read only kept tokens
+ * for, and, once a statement starts on an old statement's first token after the
+ * change, that one and all the rest. Only the statements in between are parsed
+ * again, so a one-line edit lexes a line and parses a statement.
+ *
+ * The Optimizer and Resolver change the tree they are given, so the statements
+ * kept here are never handed out: each parse gives a copy placed in the new
+ * text, and the kept ones are moved in place. Copying, and moving what follows
+ * the change, still take time in proportion to the program, but far less than
+ * lexing and parsing it. A text that fails to lex or parse gets the error the
+ * Tokenizer and Parser give for it as a whole.
+ */
+class IncrementalParser
+{
+    // a top-level statement as parsed, with the indexes of its first token, of the
+    // token after it and of the nearest and furthest tokens the parser moved to for
+    // it. A failed parse can reverse the parser's index past where it started, below
+    // the first token even, which leaves its current token behind: a statement is
+    // only reused where, before and after it, the current token was the one at the index
+    private static class Statement
+    {
+        final Node node;
+        final int first, end, nearest, furthest;
+        final boolean startsClean, endsClean;
+
+        Statement(Node node, int first, int end, int nearest, int furthest, boolean startsClean, boolean endsClean) {
+            this.node = node;
+            this.first = first;
+            this.end = end;
+            this.nearest = nearest;
+            this.furthest = furthest;
+            this.startsClean = startsClean;
+            this.endsClean = endsClean;
+        }
+
+        Statement moved(int shift) {
+            return new Statement(node, first + shift, end + shift, nearest + shift, furthest + shift, startsClean, endsClean);
+        }
+    }
+
+    // moves positions after a change in place: by delta characters and lines lines, and
+    // by columns columns on line, where the change ends
+    private static class Move
+    {
+        final int delta, lines, line, columns;
+
+        Move(int delta, int lines, int line, int columns) {
+            this.delta = delta;
+            this.lines = lines;
+            this.line = line;
+            this.columns = columns;
+        }
+
+        void apply(Position pos) {
+            if (pos == null) return;
+            if (pos.ln == line) pos.col += columns;
+            pos.idx += delta;
+            pos.ln += lines;
+        }
+
+        void apply(Token tok) {
+            if (tok == null) return;
+            apply(tok.pos_start);
+            apply(tok.pos_end);
+        }
+
+        // the positions of node's tokens, and those it owns rather than takes from its
+        // tokens or children, which the Parser always copies
+        void apply(Node node) {
+            if (node == null) return;
+            if (node instanceof ListNode || node instanceof ReturnNode || node instanceof ContinueNode || node instanceof BreakNode) {
+                apply(node.pos_start);
+                apply(node.pos_end);
+            }
+            if (node instanceof ListNode listNode) for (Node element : listNode.elementNodes) apply(element);
+            else if (node instanceof NumberNode numberNode) apply(numberNode.tok);
+            else if (node instanceof StringNode stringNode) apply(stringNode.tok);
+            else if (node instanceof VarAccessNode varAccessNode) apply(varAccessNode.varNameTok);
+            else if (node instanceof VarAssignNode varAssignNode) {
+                apply(varAssignNode.varNameTok);
+                apply(varAssignNode.valueNode);
+            }
+            else if (node instanceof UnaryOpNode unaryOpNode) {
+                apply(unaryOpNode.opTok);
+                apply(unaryOpNode.node);
+            }
+            else if (node instanceof BinOpNode binOpNode) {
+                apply(binOpNode.left);
+                apply(binOpNode.opTok);
+                apply(binOpNode.right);
+            }
+            else if (node instanceof IfNode ifNode) {
+                for (ConditionTuple ifCase : ifNode.cases) {
+                    apply(ifCase.condition);
+                    apply(ifCase.statementsOrExpression);
+                }
+                if (ifNode.elseCase != null) apply(ifNode.elseCase.statementsOrExpression);
+            }
+            else if (node instanceof ForNode forNode) {
+                apply(forNode.varNameTok);
+                apply(forNode.startValueNode);
+                apply(forNode.endValueNode);
+                apply(forNode.stepValueNode);
+                apply(forNode.bodyNode);
+            }
+            else if (node instanceof WhileNode whileNode) {
+                apply(whileNode.conditionNode);
+                apply(whileNode.bodyNode);
+            }
+            else if (node instanceof FuncDefNode funcDefNode) {
+                apply(funcDefNode.varNameTok);
+                for (Token argNameTok : funcDefNode.argNameToks) apply(argNameTok);
+                apply(funcDefNode.bodyNode);
+            }
+            else if (node instanceof CallNode callNode) {
+                apply(callNode.nodeToCall);
+                for (Node arg : callNode.argNodes) apply(arg);
+            }
+            else if (node instanceof ReturnNode returnNode) apply(returnNode.returnNode);
+        }
+    }
+
+    private final String fn;
+    private String text;
+    private TokenBuffer tokens;
+    private List<Statement> statements;
+    // where the parse stopped: the parser's index, which a failed statement can leave out of
+    // range, and the index of its current token; and the nearest token the failed one moved to
+    private int stopIndex, stop, failedNearest = Integer.MAX_VALUE;
+    private int[] nearestFrom; // for each statement, the nearest token it or any after it moved to
+    int reused = 0, parsed = 0; // statements of the last parse
+
+    IncrementalParser(String fn) {
+        this.fn = fn;
+    }
+
+    ParseResult parse(String text)
+    {
+        if (this.text == null) return parseAll(text);
+
+        TokenBuffer old = tokens;
+        int oldLength = this.text.length(), length = text.length();
+        int prefix = 0, common = Math.min(oldLength, length);
+        while (prefix < common && this.text.charAt(prefix) == text.charAt(prefix)) prefix++;
+        int suffix = 0;
+        while (suffix < common - prefix && this.text.charAt(oldLength - 1 - suffix) == text.charAt(length - 1 - suffix)) suffix++;
+        int delta = length - oldLength, unchangedFrom = length - suffix;
+
+        int restart = lastStartingBefore(old, prefix);
+        TokenBuffer toks = new TokenBuffer(fn, text, LineTable.of(text), old.end() + 16);
+        Tokenizer lexer = new Tokenizer(toks, toks.position(restart < 0 ? 0 : old.start(restart)));
+        if (restart < 0) restart = 0;
+        toks.addAll(old, 0, restart, 0);
+        Tokenizer lexed = lexer.make_tokens(idx -> idx >= unchangedFrom && startingAt(old, idx - delta) >= 0);
+        if (lexed.error != null) return parseAll(text);
+
+        // old tokens from resumed on are the same, moved; so are statements only they decide
+        int resumed = lexer.current_char != '\0' ? startingAt(old, lexer.pos.idx - delta) : old.end();
+        int shift = toks.end() - resumed;
+        Move move = null;
+        if (resumed < old.end()) {
+            Position from = old.position(old.start(resumed));
+            move = new Move(delta, lexer.pos.ln - from.ln, from.ln, lexer.pos.col - from.col);
+            toks.addAll(old, resumed, old.end(), delta);
+        }
+
+        List<Statement> kept = new ArrayList<>(statements.size());
+        for (Statement statement : statements) {
+            if (statement.furthest >= restart || !statement.endsClean) break;
+            kept.add(statement);
+        }
+        reused = kept.size();
+        parsed = 0;
+        if (!parseRest(toks, kept, resumed, shift, move)) {
+            this.text = null; // its tokens have moved
+            return parseAll(text);
+        }
+        return finish(text, toks, kept);
+    }
+
+    private ParseResult parseAll(String text)
+    {
+        Tokenizer lexed = new Tokenizer(fn, text).make_tokens();
+        if (lexed.error != null) return new ParseResult().failure(lexed.error);
+        List<Statement> kept = new ArrayList<>();
+        reused = 0;
+        parsed = 0;
+        if (!parseRest(lexed.toks, kept, Integer.MAX_VALUE, 0, null)) return new Parser(lexed.toks).parse();
+        return finish(text, lexed.toks, kept);
+    }
+
+    /*
+     * Parses the top-level statements after those in kept as Parser.statements would,
+     * until the next one can be taken, with all that follow it, from the old ones: those
+     * that only old tokens from resumed on decide, moved shift tokens on. False when
+     * the first statement fails, the one case in which the Parser gives an error.
+     */
+    private boolean parseRest(TokenBuffer toks, List<Statement> kept, int resumed, int shift, Move move)
+    {
+        Parser parser = new Parser(toks);
+        int failed = Integer.MAX_VALUE;
+        if (kept.isEmpty()) {
+            while (parser.currentTok().kind == TokenKind.NEWLINE) parser.advance();
+            if (resume(parser, toks, kept, resumed, shift, move)) return true;
+            if ((failed = parseStatement(parser, toks, kept)) != Integer.MAX_VALUE) return false;
+        }
+        else parser.seek(kept.get(kept.size() - 1).end);
+
+        while (true) {
+            int newlineCount = 0;
+            while (parser.currentTok().kind == TokenKind.NEWLINE) {
+                parser.advance();
+                newlineCount++;
+            }
+            if (newlineCount == 0) break;
+            if (resume(parser, toks, kept, resumed, shift, move)) return true;
+            if ((failed = parseStatement(parser, toks, kept)) != Integer.MAX_VALUE) break;
+        }
+        stopIndex = parser.index();
+        stop = startingAt(toks, parser.currentTok().pos_start.idx);
+        failedNearest = failed;
+        return true;
+    }
+
+    // parses one statement into kept; on failure reverses as Parser.statements does and
+    // gives the nearest token the parser moved to, else Integer.MAX_VALUE
+    private int parseStatement(Parser parser, TokenBuffer toks, List<Statement> kept)
+    {
+        int first = parser.index();
+        boolean startsClean = clean(parser, toks);
+        parser.mark();
+        ParseResult res = parser.statement();
+        if (res.err != null) {
+            int nearest = parser.nearest();
+            parser.reverse(res.advanceCount);
+            return nearest;
+        }
+        kept.add(new Statement(res.node, first, parser.index(), parser.nearest(), parser.furthest(), startsClean, clean(parser, toks)));
+        parsed++;
+        return Integer.MAX_VALUE;
+    }
+
+    private static boolean clean(Parser parser, TokenBuffer toks) {
+        int index = parser.index();
+        return index >= 0 && index < toks.end() && parser.atIndex();
+    }
+
+    // whether the next statement is an old one only moved tokens decide, in which case it
+    // and every one after it are kept
+    private boolean resume(Parser parser, TokenBuffer toks, List<Statement> kept, int resumed, int shift, Move move)
+    {
+        int index = parser.index();
+        if (index < resumed + shift || !clean(parser, toks)) return false;
+        int q = statementStartingAt(statements, index - shift);
+        if (q < 0 || !statements.get(q).startsClean || nearestFrom[q] < resumed) return false;
+        // the parse ends where the old one did, which is only the same token while in range
+        int movedStop = stopIndex + shift;
+        if (movedStop < 0 || movedStop >= toks.end()) return false;
+
+        for (Statement statement : statements.subList(q, statements.size())) {
+            move.apply(statement.node);
+            kept.add(statement.moved(shift));
+            reused++;
+        }
+        stopIndex = stop = movedStop;
+        if (failedNearest != Integer.MAX_VALUE) failedNearest += shift;
+        return true;
+    }
+
+    // keeps what was parsed for the next text and hands out a copy of it
+    private ParseResult finish(String text, TokenBuffer toks, List<Statement> kept)
+    {
+        this.text = text;
+        tokens = toks;
+        statements = kept;
+        nearestFrom = new int[kept.size()];
+        int nearest = failedNearest;
+        for (int i = kept.size() - 1; i >= 0; i--) nearestFrom[i] = nearest = Math.min(nearest, kept.get(i).nearest);
+
+        ConstantPool constants = new ConstantPool();
+        UnaryOperator<Position> placed = pos -> new Position(pos.idx, pos.ln, pos.col, fn, text);
+        List<Node> nodes = new ArrayList<>(kept.size());
+        for (Statement statement : kept) nodes.add(copy(statement.node, placed, constants));
+        Token first = toks.get(0), last = toks.get(stop);
+        return new ParseResult().success(new ListNode(nodes, place(first.pos_start, placed), place(last.pos_end, placed)));
+    }
+
+    @Override
+    public String toString() {
+        return parsed + " statements parsed, " + reused + " reused";
+    }
+
+    // the last token starting before idx, or -1
+    private static int lastStartingBefore(TokenBuffer toks, int idx)
+    {
+        int low = 0, high = toks.end() - 1, found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (toks.start(mid) < idx) {
+                found = mid;
+                low = mid + 1;
+            }
+            else high = mid - 1;
+        }
+        return found;
+    }
+
+    // the token starting at idx, or -1
+    private static int startingAt(TokenBuffer toks, int idx)
+    {
+        int found = lastStartingBefore(toks, idx + 1);
+        return found >= 0 && toks.start(found) == idx ? found : -1;
+    }
+
+    private static int statementStartingAt(List<Statement> statements, int first)
+    {
+        int low = 0, high = statements.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int at = statements.get(mid).first;
+            if (at == first) return mid;
+            if (at < first) low = mid + 1;
+            else high = mid - 1;
+        }
+        return -1;
+    }
+
+    private static Position place(Position pos, UnaryOperator<Position> place) {
+        return pos == null ? null : place.apply(pos);
+    }
+
+    private static Token copy(Token tok, UnaryOperator<Position> place)
+    {
+        if (tok == null) return null;
+        Token copy = new Token(tok.kind, tok.value, null, null);
+        copy.pos_start = place(tok.pos_start, place);
+        copy.pos_end = place(tok.pos_end, place);
+        return copy;
+    }
+
+    // a parse tree built again through the Parser's constructors, every position placed by place
+    private static Node copy(Node node, UnaryOperator<Position> place, ConstantPool constants)
+    {
+        if (node == null) return null;
+        if (node instanceof NumberNode numberNode) {
+            Token tok = copy(numberNode.tok, place);
+            return new NumberNode(tok, constants.number(tok));
+        }
+        if (node instanceof StringNode stringNode) return new StringNode(copy(stringNode.tok, place));
+        if (node instanceof VarAccessNode varAccessNode) return new VarAccessNode(copy(varAccessNode.varNameTok, place));
+        if (node instanceof VarAssignNode varAssignNode)
+            return new VarAssignNode(copy(varAssignNode.varNameTok, place), copy(varAssignNode.valueNode, place, constants));
+        if (node instanceof UnaryOpNode unaryOpNode)
+            return new UnaryOpNode(copy(unaryOpNode.opTok, place), copy(unaryOpNode.node, place, constants));
+        if (node instanceof BinOpNode binOpNode)
+            return new BinOpNode(copy(binOpNode.left, place, constants), copy(binOpNode.opTok, place), copy(binOpNode.right, place, constants));
+        if (node instanceof ListNode listNode) {
+            List<Node> elementNodes = new ArrayList<>(listNode.elementNodes.size());
+            for (Node element : listNode.elementNodes) elementNodes.add(copy(element, place, constants));
+            ListNode copy = new ListNode(elementNodes, place(listNode.pos_start, place), place(listNode.pos_end, place));
+            copy.discardsValue = listNode.discardsValue;
+            return copy;
+        }
+        if (node instanceof IfNode ifNode) {
+            List<ConditionTuple> cases = new ArrayList<>(ifNode.cases.size());
+            for (ConditionTuple ifCase : ifNode.cases)
+                cases.add(new ConditionTuple(copy(ifCase.condition, place, constants), copy(ifCase.statementsOrExpression, place, constants), ifCase.isStatementBlock));
+            ConditionTuple elseCase = ifNode.elseCase == null ? null
+                : new ConditionTuple(null, copy(ifNode.elseCase.statementsOrExpression, place, constants), ifNode.elseCase.isStatementBlock);
+            return new IfNode(cases, elseCase);
+        }
+        if (node instanceof ForNode forNode)
+            return new ForNode(copy(forNode.varNameTok, place), copy(forNode.startValueNode, place, constants), copy(forNode.endValueNode, place, constants),
+                copy(forNode.stepValueNode, place, constants), copy(forNode.bodyNode, place, constants), forNode.shouldReturnNull);
+        if (node instanceof WhileNode whileNode)
+            return new WhileNode(copy(whileNode.conditionNode, place, constants), copy(whileNode.bodyNode, place, constants), whileNode.shouldReturnNull);
+        if (node instanceof FuncDefNode funcDefNode) {
+            List<Token> argNameToks = new ArrayList<>(funcDefNode.argNameToks.size());
+            for (Token argNameTok : funcDefNode.argNameToks) argNameToks.add(copy(argNameTok, place));
+            FuncDefNode copy = new FuncDefNode(copy(funcDefNode.varNameTok, place), argNameToks, copy(funcDefNode.bodyNode, place, constants), funcDefNode.shouldAutoReturn);
+            copy.memoize = funcDefNode.memoize;
+            return copy;
+        }
+        if (node instanceof CallNode callNode) {
+            List<Node> argNodes = new ArrayList<>(callNode.argNodes.size());
+            for (Node arg : callNode.argNodes) argNodes.add(copy(arg, place, constants));
+            return new CallNode(copy(callNode.nodeToCall, place, constants), argNodes);
+        }
+        if (node instanceof ReturnNode returnNode)
+            return new ReturnNode(copy(returnNode.returnNode, place, constants), place(returnNode.pos_start, place), place(returnNode.pos_end, place));
+        if (node instanceof ContinueNode) return new ContinueNode(place(node.pos_start, place), place(node.pos_end, place));
+        if (node instanceof BreakNode) return new BreakNode(place(node.pos_start, place), place(node.pos_end, place));
+        throw new IllegalArgumentException("no copy of " + node.getClass().getSimpleName() + " defined.");
+    }
+}
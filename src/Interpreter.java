@@ -8,6 +8,9 @@ class RTResult
     public Value funcReturnValue;
     public boolean loop_should_continue;
     public boolean loop_should_break;
+    // set by `give f(...)`: the task that gave it runs f in its place (see Function.execute)
+    public Function tailCallee;
+    public List<Value> tailArgs;
 
     public RTResult() {
         reset();
@@ -19,6 +22,8 @@ class RTResult
         funcReturnValue = null;
         loop_should_continue = false;
         loop_should_break = false;
+        tailCallee = null;
+        tailArgs = null;
     }
 
     public Value register(RTResult res) {
@@ -26,6 +31,8 @@ class RTResult
         funcReturnValue = res.funcReturnValue;
         loop_should_continue = res.loop_should_continue;
         loop_should_break = res.loop_should_break;
+        tailCallee = res.tailCallee;
+        tailArgs = res.tailArgs;
         return res.value;
     }
 
@@ -41,6 +48,21 @@ class RTResult
         return this;
     }
 
+    public RTResult successTailCall(Function callee, List<Value> args) {
+        reset();
+        this.tailCallee = callee;
+        this.tailArgs = args;
+        return this;
+    }
+
+    // a tail call the given expression left to the trampoline is passed on as it is;
+    // an error it raised is dropped and the give does nothing, unless it is a LimitError
+    public RTResult give(Value value) {
+        if (tailCallee != null || err instanceof LimitError) return this;
+        if (err != null) return success(null);
+        return successReturn(value);
+    }
+
     public RTResult successContinue() {
         reset();
         this.loop_should_continue = true;
@@ -59,12 +81,23 @@ class RTResult
         return this;
     }
 
+    // literal constants carry no context, so errors they raise get the evaluating one
+    public RTResult inContext(Context context) {
+        if (err instanceof RTError rtError && rtError.context == null) rtError.context = context;
+        return this;
+    }
+
     public boolean shouldReturn() {
-        return err != null || funcReturnValue != null || loop_should_continue || loop_should_break;
+        return err != null || funcReturnValue != null || loop_should_continue || loop_should_break || tailCallee != null;
     }
 
 }
 
+interface CompiledCode
+{
+    RTResult execute(Context context);
+}
+
 class Interpreter 
 {
     public RTResult visit(Node node, Context context){
@@ -129,6 +162,14 @@ class Interpreter
         {
             return visit_BreakNode(breakNode, context);
         }
+        else if(node instanceof InvariantNode invariantNode)
+        {
+            return visit_InvariantNode(invariantNode, context);
+        }
+        else if(node instanceof FusedNode fusedNode)
+        {
+            return visit_FusedNode(fusedNode, context);
+        }
         else 
             return no_visit_method(node, context);
     }
@@ -140,25 +181,23 @@ class Interpreter
 
     public RTResult visit_NumberNode(NumberNode node, Context context) 
     {
-        return new RTResult().success(new NumberValue(Double.parseDouble(node.tok.value.toString()))
-                .setContext(context)
-                .setPos(node.pos_start, node.pos_end));
+        return context.result.success(node.constant);
     }
 
     public RTResult visit_UnaryOpNode(UnaryOpNode node, Context context) 
     {
-        RTResult res = new RTResult();
+        RTResult res = context.result;
         Value number = res.register(visit(node.node, context));
         if(res.shouldReturn()) return res;
 
         if(node.opTok.type.equals(Tokens.TT_MINUS))
         {
-            number = res.register(number.multedBy(new NumberValue(-1)));
+            number = res.register(number.multedBy(IntegerValue.MINUS_ONE, res).inContext(context));
             if(res.err != null) return res.failure(res.err);
         }
         else if(node.opTok.matches(Tokens.TT_KEYWORD, "not"))
         {
-            number = res.register(number.notted());
+            number = res.register(number.notted(res).inContext(context));
             if(res.err != null) return res.failure(res.err);
         }
         return res.success(number);
@@ -166,7 +205,7 @@ class Interpreter
 
     public RTResult visit_BinOpNode(BinOpNode node, Context context)
     {
-        RTResult res = new RTResult();
+        RTResult res = context.result;
         Value left = res.register(visit(node.left, context));
         if(res.shouldReturn()) return res;
         Value right = res.register(visit(node.right, context));
@@ -175,67 +214,67 @@ class Interpreter
         Value result = null;
         if(node.opTok.type.equals(Tokens.TT_PLUS))
         {
-            result = res.register(left.addedTo(right));
+            result = res.register(left.addedTo(right, res).inContext(context));
             if(res.err != null) return res.failure(res.err);
         }
         else if(node.opTok.type.equals(Tokens.TT_MINUS))
         {
-            result = res.register(left.subbedBy(right));
+            result = res.register(left.subbedBy(right, res).inContext(context));
             if(res.err != null) return res.failure(res.err);
         }
         else if(node.opTok.type.equals(Tokens.TT_MULT))
         {
-            result = res.register(left.multedBy(right));
+            result = res.register(left.multedBy(right, res).inContext(context));
             if(res.err != null) return res.failure(res.err);
         }
         else if(node.opTok.type.equals(Tokens.TT_DIV))
         {
-            result = res.register(left.divedBy(right));
+            result = res.register(left.divedBy(right, res).inContext(context));
             if(res.err != null) return res.failure(res.err);
         }
         else if(node.opTok.type.equals(Tokens.TT_POW))
         {
-            result = res.register(left.powedBy(right));
+            result = res.register(left.powedBy(right, res).inContext(context));
             if(res.err != null) return res.failure(res.err);
         }
         else if(node.opTok.type.equals(Tokens.TT_EQ))
         {
-            result = res.register(left.getComparisonEq(right));
+            result = res.register(left.getComparisonEq(right, res).inContext(context));
             if(res.err != null) return res.failure(res.err);
         }
         else if(node.opTok.type.equals(Tokens.TT_NE))
         {
-            result = res.register(left.getComparisonNe(right));
+            result = res.register(left.getComparisonNe(right, res).inContext(context));
             if(res.err != null) return res.failure(res.err);
         }
         else if(node.opTok.type.equals(Tokens.TT_LT))
         {
-            result = res.register(left.getComparisonLt(right));
+            result = res.register(left.getComparisonLt(right, res).inContext(context));
             if(res.err != null) return res.failure(res.err);
         }
         else if(node.opTok.type.equals(Tokens.TT_GT))
         {
-            result = res.register(left.getComparisonGt(right));
+            result = res.register(left.getComparisonGt(right, res).inContext(context));
             if(res.err != null) return res.failure(res.err);
         }
         else if(node.opTok.type.equals(Tokens.TT_LTE))
         {
-            result = res.register(left.getComparisonLte(right));
+            result = res.register(left.getComparisonLte(right, res).inContext(context));
             if(res.err != null) return res.failure(res.err);
         }
         else if(node.opTok.type.equals(Tokens.TT_GTE))
         {
-            result = res.register(left.getComparisonGte(right));
+            result = res.register(left.getComparisonGte(right, res).inContext(context));
             if(res.err != null) return res.failure(res.err);
         }
         else if(node.opTok.matches(Tokens.TT_KEYWORD, "and"))
         {
-            result = res.register(left.andedBy(right));
+            result = res.register(left.andedBy(right, res).inContext(context));
             if(res.err != null) return res.failure(res.err);
         }
         else if(node.opTok.matches(Tokens.TT_KEYWORD, "or"))
         {
-            result = res.register(left.oredBy(right));
+            result = res.register(left.oredBy(right, res).inContext(context));
             if(res.err != null) return res.failure(res.err);
         }
         return res.success(result.setPos(node.pos_start, node.pos_end));
@@ -243,25 +282,27 @@ class Interpreter
     }
 
     public RTResult visit_StringNode(StringNode node, Context context) {
-        return new RTResult().success(new StringValue((String) node.tok.value)
+        return context.result.success(new StringValue((String) node.tok.value)
                 .setContext(context)
                 .setPos(node.pos_start, node.pos_end));
     }
 
     public RTResult visit_ListNode(ListNode node, Context context)
     {
-        RTResult res = new RTResult();
-        List<Value> elements = new ArrayList<>();
+        RTResult res = context.result;
+        List<Value> elements = node.discardsValue ? null : new ArrayList<>();
         for (Node elementNode : node.elementNodes) {
-            elements.add(res.register(visit(elementNode, context)));
+            Value element = res.register(visit(elementNode, context));
             if(res.shouldReturn()) return res;
+            if(elements != null) elements.add(element);
         }
+        if (elements == null) return res.success(NumberValue.NULL);
         return res.success(new ListValue(elements).setContext(context).setPos(node.pos_start, node.pos_end));
     }
 
     public RTResult visit_IfNode(IfNode node, Context context)
     {
-        RTResult res = new RTResult();
+        RTResult res = context.result;
 
         for (ConditionTuple ct : node.cases) 
         {
@@ -289,8 +330,9 @@ class Interpreter
 
     public RTResult visit_ForNode(ForNode node, Context context) //interpreting issue
     {
-        RTResult res = new RTResult();
-        List<Value> elements = new ArrayList<>();
+        RTResult res = context.result;
+        // body results are only kept when the loop evaluates to them
+        List<Value> elements = node.isStatementBlock ? new ArrayList<>() : null;
 
         // Evaluate start value
         Value startValue = res.register(visit(node.startValueNode, context));
@@ -313,19 +355,33 @@ class Interpreter
             }
         }
 
-        // Initialize loop variable
+        // Initialize loop variable; integer starts count on a long and reuse cached values
         double i = ((NumberValue) startValue).value; // Assuming startValue is a NumberValue
+        boolean integral = startValue instanceof IntegerValue;
+        long n = integral ? ((IntegerValue) startValue).intValue : 0;
 
         // Determine loop condition based on step value
         boolean increment = ((NumberValue) stepValue).value >= 0;
 
+        String varName = node.varNameTok.value.toString();
+        // counter of the latest iteration when the variable is only stored as the loop stops
+        double lastI = Double.NaN;
+        long lastN = 0;
         while ((increment && i < ((NumberValue) endValue).value) || (!increment && i > ((NumberValue) endValue).value)) {
             // Set loop variable in symbol table
-            context.symbolTable.set(node.varNameTok.value.toString(), new NumberValue(i));
+            if (node.counterUnread) {
+                lastI = i;
+                lastN = n;
+            } else {
+                context.symbolTable.set(node.slot, varName, integral ? IntegerValue.valueOf(n) : new NumberValue(i));
+            }
 
             // Execute loop body
             res = visit(node.bodyNode, context);
-            if (res.shouldReturn() && !res.loop_should_continue && !res.loop_should_break) return res;
+            if (res.shouldReturn() && !res.loop_should_continue && !res.loop_should_break) {
+                storeCounter(node, context, integral, lastN, lastI);
+                return res;
+            }
 
             if (res.loop_should_continue) {
                 continue;
@@ -336,11 +392,13 @@ class Interpreter
             }
 
             // Collect loop body result
-            elements.add(res.value);
+            if (elements != null) elements.add(res.value);
 
             // Increment loop variable
             i += ((NumberValue) stepValue).value;
+            n += 1;
         }
+        storeCounter(node, context, integral, lastN, lastI);
 
         // Return result based on should_return_null flag
         if (node.isStatementBlock) {
@@ -351,10 +409,18 @@ class Interpreter
 
     }
 
+    // leaves the counter of the last iteration in its variable, as storing it every time would
+    // have; lastI is NaN when the loop did not run, which it cannot do from a NaN start either
+    static void storeCounter(ForNode node, Context context, boolean integral, long lastN, double lastI)
+    {
+        if (!node.counterUnread || Double.isNaN(lastI)) return;
+        context.symbolTable.set(node.slot, node.varNameTok.value.toString(), integral ? IntegerValue.valueOf(lastN) : new NumberValue(lastI));
+    }
+
     public RTResult visit_WhileNode(WhileNode node, Context context) //might have problem in parsing
     {
-        RTResult res = new RTResult();
-        List<Value> elements = new ArrayList<>();
+        RTResult res = context.result;
+        List<Value> elements = node.isStatementBlock ? new ArrayList<>() : null;
 
         while (true) {
             // Evaluate condition
@@ -384,7 +450,7 @@ class Interpreter
             }
 
             // Collect loop body result
-            elements.add(res.value);
+            if (elements != null) elements.add(res.value);
         }
 
         // Return result based on should_return_null flag
@@ -398,7 +464,7 @@ class Interpreter
 
     public RTResult visit_FuncDefNode(FuncDefNode node, Context context)
     {
-        RTResult res = new RTResult();
+        RTResult res = context.result;
 
         String funcName = (node.varNameTok != null) ? node.varNameTok.value.toString() : null;
         Node bodyNode = node.bodyNode;
@@ -410,12 +476,22 @@ class Interpreter
             argNames.add(token.value.toString());
         }
 
-        Value funcValue = new Function(funcName, bodyNode, argNames, node.shouldAutoReturn)
-                                .setContext(context)
-                                .setPos(node.pos_start, node.pos_end);
+        if (node.layout == null) node.layout = Resolver.layoutOf(node);
+        if (node.memoRefusal != null) {
+            return res.failure(new RTError(
+                node.pos_start, node.pos_end,
+                "Task '" + funcName + "' cannot be memoized: " + node.memoRefusal,
+                context
+            ));
+        }
+
+        Function function = new Function(funcName, bodyNode, argNames, node.shouldAutoReturn);
+        function.layout = node.layout;
+        function.memo = node.memo;
+        Value funcValue = function.setContext(context).setPos(node.pos_start, node.pos_end);
 
         if (node.varNameTok != null) {
-            context.symbolTable.set(funcName, funcValue);
+            context.symbolTable.set(node.slot, funcName, funcValue);
         }
 
         return res.success(funcValue);
@@ -424,13 +500,19 @@ class Interpreter
 
     public RTResult visit_CallNode(CallNode node, Context context)
     {
-        RTResult res = new RTResult();
-        List<Value> args = new ArrayList<>();
-
-        // Evaluate the function or object being called
-        Value val = res.register(visit(node.nodeToCall, context));
-        if (res.shouldReturn()) return res;
-        Value valueToCall = val.copy().setPos(node.pos_start, node.pos_end);
+        RTResult res = context.result;
+        List<Value> args = new ArrayList<>(node.argNodes.size());
+
+        // Evaluate the function or object being called; the task this site's inline cache
+        // holds is called as it is, without a copy positioned at the call
+        Function cached = node.cachedVariable(context);
+        Value val = cached;
+        if (cached == null) {
+            val = res.register(visit(node.nodeToCall, context));
+            if (res.shouldReturn()) return res;
+            cached = node.cachedTask(val);
+        }
+        Value valueToCall = (cached != null) ? val : val.copy().setPos(node.pos_start, node.pos_end);
 
         // Evaluate each argument node and collect the results
         for (Node argNode : node.argNodes) {
@@ -439,8 +521,12 @@ class Interpreter
             args.add(val1);
         }
 
+        // A tail call is made by the task being left, without a Java frame of its own
+        if (node.tail && valueToCall instanceof Function function) return res.successTailCall(function, args);
+
         // Execute the function or method with the evaluated arguments
-        Value val2 = res.register(valueToCall.execute(args));
+        RTResult callResult = (cached != null) ? cached.invoke(args, node.callerOf(val, context), node) : node.cacheTask(valueToCall, args).execute(args);
+        Value val2 = res.register(callResult.inContext(context));
         if (res.shouldReturn()) return res;
         Value returnValue = val2.copy().setPos(node.pos_start, node.pos_end).setContext(context);
 
@@ -450,39 +536,52 @@ class Interpreter
     public RTResult visit_VarAssignNode(VarAssignNode node, Context context){
         String varName = node.varNameTok.value.toString();
         RTResult value = visit(node.valueNode, context);
-        context.symbolTable.set(varName, value.value);
+        context.symbolTable.set(node.slot, varName, value.value);
         return value;
     }
     
     public RTResult visit_VarAccessNode(VarAccessNode node, Context context) {
         String varName = node.varNameTok.value.toString();
-        Value value = context.symbolTable.get(varName);
+        Value value = context.symbolTable.get(node.slot, varName);
         if (value == null) {
-            return new RTResult().failure(new RTError(
+            return context.result.failure(new RTError(
                 node.pos_start, node.pos_end,
                 "'" + varName + "' is not defined",
                 context
             ));
         }
-        return new RTResult().success(value.copy().setPos(node.pos_start, node.pos_end).setContext(context));
+        return context.result.success(value.copy().setPos(node.pos_start, node.pos_end).setContext(context));
+    }
+
+    public RTResult visit_InvariantNode(InvariantNode node, Context context)
+    {
+        RTResult known = node.reuse(context);
+        if (known != null) return known;
+        return node.remember(visit(node.expr, context), context);
+    }
+
+    public RTResult visit_FusedNode(FusedNode node, Context context)
+    {
+        RTResult res = node.execute(context);
+        return res != null ? res : visit(node.original, context);
     }
 
     public RTResult visit_ReturnNode(ReturnNode node, Context context){
-        RTResult res = new RTResult();
+        RTResult res = context.result;
 
         if (node.returnNode != null) {
             Value value = res.register(visit(node.returnNode, context));
-            return res.successReturn(value);
+            return res.give(value);
         } else {
             return res.successReturn(NumberValue.NULL);
         }
     }
 
     public RTResult visit_ContinueNode(ContinueNode node, Context context) {
-        return new RTResult().successContinue();
+        return context.result.successContinue();
     }
 
     public RTResult visit_BreakNode(BreakNode node, Context context) {
-        return new RTResult().successBreak();
+        return context.result.successBreak();
     }
 }
@@ -1,8 +1,12 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Dictionary;
-import java.util.Hashtable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntPredicate;
 
 class Tokens
 {
@@ -57,6 +61,60 @@ class Tokens
         "proceed",
         "stop"
     };
+
+    // what each ASCII character can start, read from CLASSES by the Tokenizer; anything else is OTHER
+    public static final byte OTHER = 0, BLANK = 1, COMMENT = 2, DIGIT = 3, LETTER = 4, UNDERSCORE = 5,
+        QUOTE = 6, SINGLE = 7, LT = 8, GT = 9;
+    private static final byte[] CLASSES = new byte[128];
+    // the type of each SINGLE character, a token on its own
+    static final TokenKind[] SINGLES = new TokenKind[128];
+
+    // KEYWORDS by their hash: h = h * KEYWORD_HASH + c over the characters,
+    // taken mod 64, puts each in a slot of its own
+    static final int KEYWORD_HASH = 19;
+    private static final String[] KEYWORD_SLOTS = new String[64];
+
+    static
+    {
+        CLASSES[' '] = CLASSES['\t'] = BLANK;
+        CLASSES['#'] = COMMENT;
+        for(char c : DIGITS.toCharArray()) CLASSES[c] = DIGIT;
+        for(char c : ALPHABETS.toCharArray()) CLASSES[c] = LETTER;
+        CLASSES['_'] = UNDERSCORE;
+        CLASSES['"'] = QUOTE;
+        CLASSES['<'] = LT;
+        CLASSES['>'] = GT;
+
+        String singles = ";\n,+-*/^()[]=!";
+        TokenKind[] types = { TokenKind.NEWLINE, TokenKind.NEWLINE, TokenKind.COMMA, TokenKind.PLUS, TokenKind.MINUS,
+            TokenKind.MULT, TokenKind.DIV, TokenKind.POW, TokenKind.LBRAC, TokenKind.RBRAC, TokenKind.LSQBRAC,
+            TokenKind.RSQBRAC, TokenKind.EQ, TokenKind.NE };
+        for(int i = 0; i < types.length; i++)
+        {
+            CLASSES[singles.charAt(i)] = SINGLE;
+            SINGLES[singles.charAt(i)] = types[i];
+        }
+
+        for(String keyword : KEYWORDS)
+        {
+            int h = 0;
+            for(int i = 0; i < keyword.length(); i++) h = h * KEYWORD_HASH + keyword.charAt(i);
+            if(KEYWORD_SLOTS[h & 63] != null) throw new AssertionError("keywords " + keyword + " and " + KEYWORD_SLOTS[h & 63] + " share a slot");
+            KEYWORD_SLOTS[h & 63] = keyword;
+        }
+    }
+
+    public static byte char_class(char c)
+    {
+        return c < 128 ? CLASSES[c] : OTHER;
+    }
+
+    // the keyword spelled by name, whose hash is h, or null when it is not one
+    static String keyword(CharSequence name, int h)
+    {
+        String keyword = KEYWORD_SLOTS[h & 63];
+        return keyword != null && keyword.contentEquals(name) ? keyword : null;
+    }
 }
 
 class Position
@@ -95,16 +153,55 @@ class Position
     }
 }
 
+// what a token is, by ordinal: the parser compares these rather than type names
+enum TokenKind
+{
+    INT(Tokens.TT_INT), FLOAT(Tokens.TT_FLOAT), STRING(Tokens.TT_STRING),
+    PLUS(Tokens.TT_PLUS), MINUS(Tokens.TT_MINUS), MULT(Tokens.TT_MULT), DIV(Tokens.TT_DIV), POW(Tokens.TT_POW),
+    LBRAC(Tokens.TT_LBRAC), RBRAC(Tokens.TT_RBRAC), LSQBRAC(Tokens.TT_LSQBRAC), RSQBRAC(Tokens.TT_RSQBRAC),
+    EQ(Tokens.TT_EQ), NE(Tokens.TT_NE), LT(Tokens.TT_LT), GT(Tokens.TT_GT), LTE(Tokens.TT_LTE), GTE(Tokens.TT_GTE),
+    COMMA(Tokens.TT_COMMA), IDENTIFIER(Tokens.TT_IDENTIFIER), KEYWORD(Tokens.TT_KEYWORD),
+    NEWLINE(Tokens.TT_NEWLINE), EOF(Tokens.TT_EOF);
+
+    static final TokenKind[] KINDS = values();
+    private static final Map<String, TokenKind> BY_TYPE = new HashMap<>();
+    static
+    {
+        for(TokenKind kind : KINDS) BY_TYPE.put(kind.type, kind);
+    }
+
+    final String type;
+
+    TokenKind(String type)
+    {
+        this.type = type;
+    }
+
+    static TokenKind of(String type)
+    {
+        TokenKind kind = BY_TYPE.get(type);
+        if(kind == null) throw new IllegalArgumentException("no token type " + type);
+        return kind;
+    }
+}
+
 class Token
 {
-    public String type;
+    public final String type;
+    public final TokenKind kind;
     public Object value = null;
     public Position pos_start = null;
     public Position pos_end = null;
 
     Token(String type, Object value, Position pos_start, Position pos_end)
     {
-        this.type = type;
+        this(TokenKind.of(type), value, pos_start, pos_end);
+    }
+
+    Token(TokenKind kind, Object value, Position pos_start, Position pos_end)
+    {
+        this.type = kind.type;
+        this.kind = kind;
         this.value = value;
 
         if(pos_start != null)
@@ -128,6 +225,11 @@ class Token
         return this.type.equals(type) && this.value.equals(value);
     }
 
+    public boolean matches(TokenKind kind, Object value)
+    {
+        return this.kind == kind && this.value.equals(value);
+    }
+
     public String repr()
     {
         if(value != null) return type + ":" + value.toString();
@@ -135,23 +237,227 @@ class Token
     } 
 }
 
+// the index at which each line starts, from which a position's line and column are found
+class LineTable
+{
+    private int[] starts = new int[64];
+    private int first, count = 1; // starts[0] is where line first starts
+    private int last; // the line last found, as positions are mostly asked for in order
+
+    static LineTable of(String text)
+    {
+        LineTable lines = new LineTable();
+        for(int idx = text.indexOf('\n'); idx >= 0; idx = text.indexOf('\n', idx + 1)) lines.add(idx + 1);
+        return lines;
+    }
+
+    // a line starting at start, unless it is already known
+    void add(int start)
+    {
+        if(start <= starts[count - 1]) return;
+        if(count == starts.length) starts = Arrays.copyOf(starts, count * 2);
+        starts[count++] = start;
+    }
+
+    int line(int idx)
+    {
+        // the line last found, or one of the next two
+        for(int at = last; at < count && at <= last + 2 && starts[at] <= idx; at++)
+        {
+            if(at + 1 == count || idx < starts[at + 1])
+            {
+                last = at;
+                return first + at;
+            }
+        }
+        int low = 0, high = count - 1;
+        while(low < high)
+        {
+            int mid = (low + high + 1) >>> 1;
+            if(starts[mid] <= idx) low = mid;
+            else high = mid - 1;
+        }
+        last = low;
+        return first + low;
+    }
+
+    int column(int idx, int line)
+    {
+        return idx - starts[line - first];
+    }
+
+    // forgets the lines that end before idx
+    void discard(int idx)
+    {
+        int dropped = line(idx) - first;
+        if(dropped == 0) return;
+        System.arraycopy(starts, dropped, starts, 0, count - dropped);
+        first += dropped;
+        count -= dropped;
+        last = 0;
+    }
+}
+
+/*
+ * Tokens kept as parallel arrays rather than as objects: each is its kind, the
+ * indexes of its first character and of the one after it, and its value. A Token,
+ * with its Positions, is only made when the Parser reaches it; lines and columns
+ * come from the line table. Indexes count from the first token, including any a
+ * TokenWindow has dropped.
+ */
+class TokenBuffer implements TokenSource
+{
+    final String fn, text; // text is null when lexed from a reader
+    final LineTable lines;
+    private byte[] kinds;
+    private int[] starts, ends;
+    private Object[] values;
+    private int first, size; // kinds[0] is token first
+
+    TokenBuffer(String fn, String text, LineTable lines, int capacity)
+    {
+        this.fn = fn;
+        this.text = text;
+        this.lines = lines;
+        capacity = Math.max(capacity, 16);
+        kinds = new byte[capacity];
+        starts = new int[capacity];
+        ends = new int[capacity];
+        values = new Object[capacity];
+    }
+
+    void add(TokenKind kind, Object value, int start, int end)
+    {
+        if(size == kinds.length)
+        {
+            int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        kinds[size] = (byte) kind.ordinal();
+        starts[size] = start;
+        ends[size] = end;
+        values[size] = value;
+        size++;
+    }
+
+    // the tokens of from in [begin, end), each moved delta characters
+    void addAll(TokenBuffer from, int begin, int end, int delta)
+    {
+        for(int i = begin; i < end; i++)
+        {
+            int at = i - from.first;
+            add(TokenKind.KINDS[from.kinds[at]], from.values[at], from.starts[at] + delta, from.ends[at] + delta);
+        }
+    }
+
+    // the index after the last token
+    int end()
+    {
+        return first + size;
+    }
+
+    TokenKind kind(int index)
+    {
+        return TokenKind.KINDS[kinds[index - first]];
+    }
+
+    int start(int index)
+    {
+        return starts[index - first];
+    }
+
+    Position position(int idx)
+    {
+        int line = lines.line(idx);
+        return new Position(idx, line, lines.column(idx, line), fn, text);
+    }
+
+    @Override
+    public Token get(int index)
+    {
+        if(index < first || index >= first + size) return null;
+        int at = index - first;
+        TokenKind kind = TokenKind.KINDS[kinds[at]];
+        Token tok = new Token(kind, values[at], null, null);
+        tok.pos_start = position(starts[at]);
+        // the lexer gave these one character on the line they start on, even a '\n'
+        tok.pos_end = kind == TokenKind.NEWLINE || kind == TokenKind.EOF ? tok.pos_start.copy().advance() : position(ends[at]);
+        return tok;
+    }
+
+    // drops the tokens before index, and the lines before the first left
+    void discard(int index)
+    {
+        int dropped = Math.min(index - first, size);
+        if(dropped <= 0) return;
+        System.arraycopy(kinds, dropped, kinds, 0, size - dropped);
+        System.arraycopy(starts, dropped, starts, 0, size - dropped);
+        System.arraycopy(ends, dropped, ends, 0, size - dropped);
+        System.arraycopy(values, dropped, values, 0, size - dropped);
+        Arrays.fill(values, size - dropped, size, null);
+        first += dropped;
+        size -= dropped;
+        if(size > 0) lines.discard(starts[0]);
+    }
+
+    List<String> repr()
+    {
+        List<String> res = new ArrayList<>();
+        for(int i = first; i < end(); i++) res.add(get(i).repr());
+        return res;
+    }
+}
+
 class Tokenizer
 {
     String fn, text;
     char current_char = '\0';
     Position pos;
-    List<Token> toks;
+    TokenBuffer toks; // where the tokens go
     Errors error;
+    // when lexing from a reader instead of text: what was read of it and not yet lexed
+    private Reader reader;
+    private char[] buffer;
+    private int buffered, offset;
+    // the text of the token being made
+    private final StringBuilder lexeme = new StringBuilder();
 
     public Tokenizer(String fn, String text)
     {
        this.fn = fn;
        this.text = text;
+       toks = new TokenBuffer(fn, text, new LineTable(), 256);
        pos = new Position(-1, 0, -1, fn, text);
        advance();
     }
 
-    Tokenizer(List<Token> toks, Errors error)
+    // lexes the text of toks from start, a position at which an earlier lexing of
+    // it began a token, adding to toks; its line table must already cover the text
+    Tokenizer(TokenBuffer toks, Position start)
+    {
+        this.fn = toks.fn;
+        this.text = toks.text;
+        this.toks = toks;
+        pos = new Position(start.idx, start.ln, start.col, fn, text);
+        current_char = pos.idx < text.length() ? text.charAt(pos.idx) : '\0';
+    }
+
+    // lexes what reader gives, holding only the characters read ahead of pos;
+    // its positions carry no text, so errors show no source line
+    Tokenizer(String fn, Reader reader)
+    {
+        this.fn = fn;
+        this.reader = reader;
+        buffer = new char[8192];
+        toks = new TokenBuffer(fn, null, new LineTable(), 256);
+        pos = new Position(-1, 0, -1, fn, null);
+        advance();
+    }
+
+    Tokenizer(TokenBuffer toks, Errors error)
     {
         this.toks = toks;
         this.error = error;
@@ -160,126 +466,126 @@ class Tokenizer
     final void advance()
     {
         pos.advance(current_char);
-        if(pos.idx < text.length())
+        if(current_char == '\n') toks.lines.add(pos.idx);
+        if(reader != null)
+            current_char = read();
+        else if(pos.idx < text.length())
             current_char = text.charAt(pos.idx);
         else
             current_char = '\0'; 
     }
 
-    public Tokenizer make_tokens()
+    private char read()
     {
-        List<Token> tokens = new ArrayList<>();
-
-        while(current_char != '\0')
+        while(offset == buffered)
         {
-            if(current_char == ' ' || current_char == '\t')
-                advance();
-
-            else if(current_char == '#')
-                skip_comment();
-                
-            else if(Tokens.DIGITS.contains(""+current_char))
-                tokens.add(make_number());
-
-            else if(Tokens.ALPHABETS.contains((""+current_char)))
-                tokens.add(make_identifier());
-
-            else if(current_char == '"')
-                tokens.add(make_string());
-                    
-            else if(current_char == ';' || current_char == '\n')
-            {
-                tokens.add(new Token(Tokens.TT_NEWLINE, null, pos, null));
-                advance();
-            }
-            else if(current_char == ',')
-            {
-                tokens.add(new Token(Tokens.TT_COMMA, null, pos, null));
-                advance();
+            try {
+                buffered = reader.read(buffer);
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
             }
-            else if(current_char == '+')
+            offset = 0;
+            if(buffered < 0)
             {
-                tokens.add(new Token(Tokens.TT_PLUS, null, pos, null));
-                advance();
+                buffered = 0;
+                return '\0';
             }
-            else if(current_char == '-')
-            {
-                tokens.add(new Token(Tokens.TT_MINUS, null, pos, null));
-                advance();
-            }
-            else if(current_char == '*')
-            {
-                tokens.add(new Token(Tokens.TT_MULT, null, pos, null));
-                advance();
-            }
-            else if(current_char == '/')
-            {
-                tokens.add(new Token(Tokens.TT_DIV, null, pos, null));
-                advance();
-            }
-            else if(current_char == '^')
-            {
-                tokens.add(new Token(Tokens.TT_POW, null, pos, null));
-                advance();
-            }
-            else if(current_char == '(')
-            {
-                tokens.add(new Token(Tokens.TT_LBRAC, null, pos, null));
-                advance();
-            }
-            else if(current_char == ')')
-            {
-                tokens.add(new Token(Tokens.TT_RBRAC, null, pos, null));
-                advance();
-            }
-            else if(current_char == '[')
-            {
-                tokens.add(new Token(Tokens.TT_LSQBRAC, null, pos, null));
-                advance();
-            }
-            else if(current_char == ']')
-            {
-                tokens.add(new Token(Tokens.TT_RSQBRAC, null, pos, null));
-                advance();
-            }
-            else if(current_char == '=')
-            {
-                tokens.add(new Token(Tokens.TT_EQ, null, pos, null));
-                advance();
-            }
-            else if(current_char == '!')
-            {
-                tokens.add(new Token(Tokens.TT_NE, null, pos, null));
-                advance();
-            }
-            else if(current_char == '<')
-            {
-                tokens.add(make_lt());
-            }
-            else if(current_char == '>')
-            {
-                tokens.add(make_gt());
-            }
-            else
+        }
+        return buffer[offset++];
+    }
+
+    public Tokenizer make_tokens()
+    {
+        return make_tokens(idx -> false);
+    }
+
+    // stops before the first token at whose index resume holds, leaving out the EOF token;
+    // gives this Tokenizer, or one with only the error
+    Tokenizer make_tokens(IntPredicate resume)
+    {
+        while(true)
+        {
+            skip_blanks();
+            if(current_char != '\0' && resume.test(pos.idx))
+                return this;
+
+            if(current_char == '\0')
             {
-                Position pos_start = pos.copy();
-                char c = current_char;
-                advance();
-                return new Tokenizer(null, new IllegalCharError(pos_start, pos, "'" + c + "'"));
+                make_eof();
+                return this;
             }
+            if(!read_token()) return new Tokenizer(null, error);
+        }
+    }
+
+    // adds the next token to toks, EOF at the end of the text and again after it; false once error is set
+    boolean next_token()
+    {
+        skip_blanks();
+        if(current_char == '\0')
+        {
+            make_eof();
+            return true;
         }
-        tokens.add(new Token(Tokens.TT_EOF, null, pos, null));
-        return new Tokenizer(tokens, null);
+        return read_token();
+    }
 
+    void skip_blanks()
+    {
+        while(true)
+        {
+            byte char_class = Tokens.char_class(current_char);
+            if(char_class == Tokens.BLANK) advance();
+            else if(char_class == Tokens.COMMENT) skip_comment();
+            else return;
+        }
     }
 
-    Token make_number()
+    void make_eof()
     {
-        StringBuilder num_str = new StringBuilder();
-        int dot_count = 0;
+        toks.add(TokenKind.EOF, null, pos.idx, pos.idx + 1);
+    }
+
+    private boolean read_token()
+    {
+        int start = pos.idx;
+        switch(Tokens.char_class(current_char))
+        {
+            case Tokens.DIGIT:
+                make_number();
+                return true;
+            case Tokens.LETTER:
+                make_identifier();
+                return true;
+            case Tokens.QUOTE:
+                make_string();
+                return true;
+            case Tokens.SINGLE:
+                toks.add(Tokens.SINGLES[current_char], null, start, start + 1);
+                advance();
+                return true;
+            case Tokens.LT:
+                make_comparison(TokenKind.LT, TokenKind.LTE);
+                return true;
+            case Tokens.GT:
+                make_comparison(TokenKind.GT, TokenKind.GTE);
+                return true;
+        }
         Position pos_start = pos.copy();
+        char c = current_char;
+        advance();
+        error = new IllegalCharError(pos_start, pos.copy(), "'" + c + "'");
+        return false;
+    }
 
-        while(current_char != '\0' && ( Tokens.DIGITS.indexOf(current_char) != -1 || current_char == '.'))
+    void make_number()
+    {
+        StringBuilder num_str = lexeme;
+        num_str.setLength(0);
+        int dot_count = 0;
+        int start = pos.idx;
+
+        while(Tokens.char_class(current_char) == Tokens.DIGIT || current_char == '.')
         {
             if(current_char == '.')
             {
@@ -293,95 +599,130 @@ class Tokenizer
             advance();
         }
         if(dot_count == 0)
-            return new Token(Tokens.TT_INT, Integer.valueOf(num_str.toString()), pos_start, pos);
+            toks.add(TokenKind.INT, Long.valueOf(num_str.toString()), start, pos.idx);
         else
-            return new Token(Tokens.TT_FLOAT, Double.valueOf(num_str.toString()), pos_start, pos);
+            toks.add(TokenKind.FLOAT, Double.valueOf(num_str.toString()), start, pos.idx);
     }
 
-    Token make_string()
+    private static final Map<Character, Character> ESCAPE_CHARACTERS = Map.of('\n', '\n', '\t', '\t');
+
+    void make_string()
     {
-        String string = "";
-        Position pos_start = pos.copy();
+        StringBuilder string = lexeme;
+        string.setLength(0);
+        int start = pos.idx;
         boolean escape_char = false;
         advance();
 
-        Dictionary<Character, Character> escape_characters = new Hashtable<>();
-        escape_characters.put('\n', '\n');
-        escape_characters.put('\t', '\t');
-
         while((current_char != '\0') && (current_char != '"' || escape_char))
         {
             if(escape_char)
-                string += escape_characters.get(current_char);
+                string.append(ESCAPE_CHARACTERS.get(current_char));
             else
             {
-                if(current_char == '\\') escape_char = true; else string += current_char;
+                if(current_char == '\\') escape_char = true; else string.append(current_char);
             }
             advance();
         }
         advance();
-        return new Token(Tokens.TT_STRING, string, pos_start, pos);
+        toks.add(TokenKind.STRING, string.toString(), start, pos.idx);
     }
 
-    Token make_identifier()
+    void make_identifier()
     {
-        String id_str = "";
-        Position pos_start = pos.copy();
-        String tok_type;
-        while(current_char != '\0' && Tokens.DIGITS_ALPHABETS.contains(""+current_char))
+        StringBuilder id_str = lexeme;
+        id_str.setLength(0);
+        int hash = 0;
+        int start = pos.idx;
+        byte char_class = Tokens.char_class(current_char);
+        while(char_class == Tokens.LETTER || char_class == Tokens.DIGIT || char_class == Tokens.UNDERSCORE)
         {
-            id_str += current_char;
+            id_str.append(current_char);
+            hash = hash * Tokens.KEYWORD_HASH + current_char;
             advance();
+            char_class = Tokens.char_class(current_char);
         }
-        if(Arrays.asList(Tokens.KEYWORDS).contains(id_str))
-        {
-            tok_type = Tokens.TT_KEYWORD;
-        }else{
-            tok_type = Tokens.TT_IDENTIFIER;
-        }
-        return new Token(tok_type, id_str, pos_start, pos);
+        String keyword = Tokens.keyword(id_str, hash);
+        if(keyword != null)
+            toks.add(TokenKind.KEYWORD, keyword, start, pos.idx);
+        else
+            toks.add(TokenKind.IDENTIFIER, id_str.toString(), start, pos.idx);
     }
 
-    Token make_lt()
+    // `<` or `<=`, `>` or `>=`
+    void make_comparison(TokenKind kind, TokenKind or_equal)
     {
-        String tok_type = Tokens.TT_LT;
-        Position pos_start = pos.copy();
+        int start = pos.idx;
         advance();
 
         if(current_char == '=')
         {
             advance();
-            tok_type = Tokens.TT_LTE;
+            kind = or_equal;
         }
-        return new Token(tok_type, null, pos_start, pos);
+        toks.add(kind, null, start, pos.idx);
     }
 
-    Token make_gt()
+    void skip_comment()
     {
-        String tok_type = Tokens.TT_GT;
-        Position pos_start = pos.copy();
         advance();
+        while(current_char != '\n' && current_char != '\0') advance();
+        if(current_char == '\n') advance();
+    }
 
-        if(current_char == '=')
-        {
-            advance();
-            tok_type = Tokens.TT_GTE;
-        }
-        return new Token(tok_type, null, pos_start, pos);
+    List<String> repr()
+    {
+        return toks.repr();
     }
+}
 
-    void skip_comment()
+// the tokens of a Tokenizer, lexed as the Parser reaches them and dropped once it releases them
+class TokenWindow implements TokenSource
+{
+    private final Tokenizer lexer;
+    private final TokenBuffer window;
+    private boolean ended;
+    Errors error;
+
+    TokenWindow(Tokenizer lexer)
     {
-        advance();
-        while(current_char != '\n') advance();
-        advance();
+        this.lexer = lexer;
+        window = lexer.toks;
     }
 
-    List<String> repr()
+    @Override
+    public Token get(int index)
     {
-        List<String> res = new ArrayList<>();
-        for(int i = 0; i < toks.size(); i++) res.add(toks.get(i).repr());
-        return res;
+        while(index >= window.end() && !ended) pull();
+        return window.get(index);
+    }
+
+    @Override
+    public void release(int index)
+    {
+        window.discard(index);
+    }
+
+    // lexes the rest, so an illegal character after where the parse stopped is still found
+    Errors drain()
+    {
+        release(window.end());
+        while(!ended)
+        {
+            pull();
+            release(window.end());
+        }
+        return error;
+    }
 
+    // an illegal character ends the tokens early; error is what the parse then reports
+    private void pull()
+    {
+        if(!lexer.next_token())
+        {
+            error = lexer.error;
+            lexer.make_eof();
+        }
+        if(window.kind(window.end() - 1) == TokenKind.EOF) ended = true;
     }
-}
\ No newline at end of file
+}
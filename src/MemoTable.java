@@ -0,0 +1,63 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Results of a task declared `task name(args) memo`, keyed on the values of its
+ * arguments. The Resolver only attaches a table once it has checked that the body
+ * reads nothing but its own variables and defines no tasks, so the arguments alone
+ * decide what it gives. Calls are cached only when every argument is a number or a
+ * string; the least recently used result is dropped once CAPACITY are held.
+ */
+class MemoTable
+{
+    static final int CAPACITY = 1 << 16;
+
+    final String name;
+    long hits = 0, misses = 0;
+
+    private final Map<List<Object>, Value> results = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Object>, Value> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+
+    MemoTable(String name) {
+        this.name = name;
+    }
+
+    // null when an argument has no value identity, so the call cannot be cached
+    static List<Object> key(List<Value> args)
+    {
+        List<Object> key = new ArrayList<>(args.size());
+        for (Value arg : args) {
+            if (arg instanceof IntegerValue integerValue) key.add(integerValue.intValue);
+            else if (arg instanceof NumberValue numberValue) key.add(numberValue.value);
+            else if (arg instanceof StringValue stringValue) key.add(stringValue.value);
+            else return null;
+        }
+        return key;
+    }
+
+    Value lookup(List<Object> key)
+    {
+        Value result = results.get(key);
+        if (result != null) hits++;
+        else misses++;
+        return result;
+    }
+
+    // tasks are not cached: they keep the frame they were defined in
+    void store(List<Object> key, Value result)
+    {
+        if (result instanceof Function) return;
+        results.put(key, result.copy().setContext(null));
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + hits + " hits, " + misses + " misses, " + results.size() + " cached";
+    }
+}
@@ -1,4 +1,5 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 class Node 
@@ -43,10 +44,13 @@ class Node
 class NumberNode extends Node
 {
     Token tok;
-    NumberNode(Token tok)
+    NumberValue constant; // built once by the parser, positioned at this node and shared by every evaluation
+
+    NumberNode(Token tok, NumberValue constant)
     {
         super(tok.pos_start, tok.pos_end);
         this.tok = tok;
+        this.constant = (NumberValue) constant.setPos(tok.pos_start, tok.pos_end).share();
     }
     
     @Override
@@ -113,6 +117,7 @@ class StringNode extends Node
 class ListNode extends Node
 {
     List<Node> elementNodes;
+    boolean discardsValue; // statements of a loop body whose results are never read: no list is built
 
     ListNode(List<Node> elementNodes, Position pos_start, Position pos_end) {
         super(pos_start, pos_end);
@@ -130,22 +135,37 @@ class VarAssignNode extends Node
 {
     public Token varNameTok;
     public Node valueNode;
+    int slot = -1; // frame slot given by the Resolver, -1 for a lookup by name
 
     VarAssignNode(Token varNameTok, Node valueNode) {
         super(varNameTok.pos_start, valueNode.pos_end);
         this.varNameTok = varNameTok;
         this.valueNode = valueNode;
     }
+
+    @Override
+    public String toString()
+    {
+        return "(" + varNameTok.repr() + ", IS, " + valueNode + ")";
+    }
 }
 
 class VarAccessNode extends Node
 {
     public Token varNameTok;
+    int slot = -1;
 
     VarAccessNode(Token varNameTok) {
         super(varNameTok.pos_start, varNameTok.pos_end);
         this.varNameTok = varNameTok;
-    }    
+    }
+
+    @Override
+    public String toString()
+    {
+        return varNameTok.repr();
+    }
+    
 }
 
 class IfNode extends Node
@@ -159,6 +179,12 @@ class IfNode extends Node
         this.cases = cases;
         this.elseCase = elseCase;
     }
+
+    @Override
+    public String toString()
+    {
+        return "(IF, " + cases + ", " + elseCase + ")";
+    }
 }
 
 class ForNode extends Node 
@@ -169,6 +195,10 @@ class ForNode extends Node
     Node stepValueNode;
     Node bodyNode;
     boolean shouldReturnNull;
+    int slot = -1;
+    // nothing in the body can see the counter, set by the Optimizer: it stays a primitive
+    // while the loop runs and the variable is only stored once it stops
+    boolean counterUnread;
 
     ForNode(Token varNameTok, Node startValueNode, Node endValueNode, Node stepValueNode, Node bodyNode, boolean shouldReturnNull) {
         super(varNameTok.pos_start, bodyNode.pos_end);
@@ -179,6 +209,12 @@ class ForNode extends Node
         this.bodyNode = bodyNode;
         this.shouldReturnNull = shouldReturnNull;
     }
+
+    @Override
+    public String toString()
+    {
+        return "(FOR, " + varNameTok.repr() + ", " + startValueNode + ", " + endValueNode + ", " + stepValueNode + ", " + bodyNode + ")";
+    }
 }
 
 class WhileNode extends Node
@@ -193,6 +229,12 @@ class WhileNode extends Node
         this.bodyNode = bodyNode;
         this.shouldReturnNull = shouldReturnNull;
     }
+
+    @Override
+    public String toString()
+    {
+        return "(UNTIL, " + conditionNode + ", " + bodyNode + ")";
+    }
 }
 
 class FuncDefNode extends Node
@@ -201,6 +243,11 @@ class FuncDefNode extends Node
     List<Token> argNameToks;
     Node bodyNode;
     boolean shouldAutoReturn;
+    int slot = -1;
+    FrameLayout layout; // locals of bodyNode, set by the Resolver
+    boolean memoize;     // declared `memo`
+    MemoTable memo;      // its results, once the Resolver has found the body pure
+    String memoRefusal;  // or why it is not
 
     FuncDefNode(Token varNameTok, List<Token> argNameToks, Node bodyNode, boolean shouldAutoReturn) {
         super(varNameTok != null ? varNameTok.pos_start : (!argNameToks.isEmpty() ? argNameToks.get(0).pos_start : bodyNode.pos_start), bodyNode.pos_end);
@@ -209,12 +256,20 @@ class FuncDefNode extends Node
         this.bodyNode = bodyNode;
         this.shouldAutoReturn = shouldAutoReturn;
     }
+
+    @Override
+    public String toString()
+    {
+        return "(TASK, " + (varNameTok != null ? varNameTok.repr() : "") + ", " + argNameToks.stream().map(Token::repr).toList() + ", " + bodyNode + ")";
+    }
 }
 
 class CallNode extends Node
 {
     Node nodeToCall;
     List<Node> argNodes;
+    boolean tail; // the value of a give in a task body, set by the Resolver
+    Node cachedBody; // inline cache: body of the task last called here with an argument count that fit
 
     CallNode(Node nodeToCall, List<Node> argNodes) {
         super(nodeToCall.pos_start, 
@@ -222,6 +277,97 @@ class CallNode extends Node
         this.nodeToCall = nodeToCall;
         this.argNodes = argNodes;
     }
+
+    @Override
+    public String toString()
+    {
+        return "(CALL, " + nodeToCall + ", " + argNodes + ")";
+    }
+
+    // the callee when it is the task the inline cache holds; a tail call is made by the
+    // caller's trampoline, so it never runs from here
+    Function cachedTask(Value callee) {
+        if (!tail && callee instanceof Function function && function.bodyNode == cachedBody) return function;
+        return null;
+    }
+
+    // the same for a variable callee, read without the copy a variable access makes
+    Function cachedVariable(Context context) {
+        if (cachedBody == null || !(nodeToCall instanceof VarAccessNode varAccessNode)) return null;
+        return cachedTask(context.symbolTable.get(varAccessNode.slot, varAccessNode.varNameTok.value.toString()));
+    }
+
+    // the context a cached task is called from: the one evaluating the callee would have given it
+    Context callerOf(Value callee, Context context) {
+        return (nodeToCall instanceof VarAccessNode) ? context : callee.context;
+    }
+
+    // remembers a task called the general way, once its arguments are known to fit
+    Value cacheTask(Value callee, List<Value> args) {
+        if (callee instanceof Function function) cachedBody = (args.size() == function.argNames.size()) ? function.bodyNode : null;
+        return callee;
+    }
+}
+
+/*
+ * An expression of a loop body that reads no variable the loop assigns, set up
+ * by the Optimizer. It is still evaluated where it stands, but its value is kept
+ * and handed out again for as long as every variable it reads holds the same
+ * Value object as when it was computed; values are never changed in place, so
+ * those decide the result. Until that first evaluation nothing is computed, so a
+ * loop that never runs or a branch that is never taken still raises no error.
+ */
+class InvariantNode extends Node
+{
+    Node expr;
+    List<VarAccessNode> inputs;
+    private Value[] seen; // what each input held when value was computed
+    private Value value;
+
+    InvariantNode(Node expr, List<VarAccessNode> inputs) {
+        super(expr.pos_start, expr.pos_end);
+        this.expr = expr;
+        this.inputs = inputs;
+        this.seen = new Value[inputs.size()];
+    }
+
+    private Value read(VarAccessNode input, Context context) {
+        return context.symbolTable.get(input.slot, input.varNameTok.value.toString());
+    }
+
+    // the kept value when no input has changed since, else null
+    RTResult reuse(Context context) {
+        if (value == null) return null;
+        for (int i = 0; i < seen.length; i++) {
+            if (read(inputs.get(i), context) != seen[i]) return null;
+        }
+        // a result made from variables belongs to the frame that read them
+        return context.result.success(value.context == null ? value : value.setContext(context));
+    }
+
+    // drops the kept value, so none outlives the run that computed it
+    void forget() {
+        value = null;
+        Arrays.fill(seen, null);
+    }
+
+    // keeps a freshly computed result together with the inputs it came from
+    RTResult remember(RTResult res, Context context) {
+        value = null;
+        if (res.err != null) return res;
+        for (int i = 0; i < seen.length; i++) {
+            seen[i] = read(inputs.get(i), context);
+            if (seen[i] == null) return res;
+        }
+        value = res.value.share();
+        return res;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "(INVARIANT, " + expr + ")";
+    }
 }
 
 class ReturnNode extends Node
@@ -232,6 +378,12 @@ class ReturnNode extends Node
         super(pos_start, pos_end);
         this.returnNode = returnNode;
     }
+
+    @Override
+    public String toString()
+    {
+        return "(GIVE, " + returnNode + ")";
+    }
 }
 
 class ContinueNode extends Node
@@ -239,6 +391,12 @@ class ContinueNode extends Node
     ContinueNode(Position pos_start, Position pos_end) {
         super(pos_start, pos_end);
     }
+
+    @Override
+    public String toString()
+    {
+        return "PROCEED";
+    }
 }
 
 class BreakNode extends Node
@@ -246,6 +404,12 @@ class BreakNode extends Node
     BreakNode(Position pos_start, Position pos_end) {
         super(pos_start, pos_end);
     }
+
+    @Override
+    public String toString()
+    {
+        return "STOP";
+    }
 }
 
 class ConditionTuple 
@@ -260,4 +424,10 @@ class ConditionTuple
         this.statementsOrExpression = statementsOrExpression;
         this.isStatementBlock = isStatementBlock;
     }
+
+    @Override
+    public String toString()
+    {
+        return "(" + condition + ", " + statementsOrExpression + ")";
+    }
 }
\ No newline at end of file
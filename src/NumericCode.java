@@ -0,0 +1,328 @@
+class NumericBailout extends RuntimeException
+{
+    private static final long serialVersionUID = 1L;
+    static final NumericBailout INSTANCE = new NumericBailout();
+
+    private NumericBailout() {
+        super(null, null, false, false);
+    }
+}
+
+interface LongOperation
+{
+    long apply(long left, long right);
+}
+
+interface DoubleOperation
+{
+    double apply(double left, double right);
+}
+
+/*
+ * Unboxed evaluation of a side-effect free numeric expression. A tree is
+ * specialized for the kinds its variables hold when it is first run: integer
+ * subtrees compute on longs, the rest on doubles, so the result kind always
+ * matches what IntegerValue/NumberValue arithmetic would give. Anything the
+ * specialization cannot express (a variable changing kind, overflow, a -0.0 a
+ * long cannot hold, division by zero, a negative integer exponent) throws
+ * NumericBailout and the boxed closure runs instead.
+ */
+abstract class NumericCode
+{
+    final boolean integral;
+
+    NumericCode(boolean integral) {
+        this.integral = integral;
+    }
+
+    // only called on integral subtrees
+    long executeLong(Context context) {
+        throw new IllegalStateException("not an integer expression");
+    }
+
+    // integral subtrees widen exactly like IntegerValue.value does
+    double executeDouble(Context context) {
+        return (double) executeLong(context);
+    }
+
+    boolean test(Context context) {
+        return integral ? executeLong(context) != 0 : executeDouble(context) != 0;
+    }
+
+    static boolean isNumericTree(Node node)
+    {
+        if (node instanceof NumberNode || node instanceof VarAccessNode) return true;
+        if (node instanceof InvariantNode invariantNode) return isNumericTree(invariantNode.expr);
+        if (node instanceof UnaryOpNode unaryOpNode) return isNumericTree(unaryOpNode.node);
+        if (node instanceof BinOpNode binOpNode)
+            return isNumericOperator(binOpNode.opTok) && isNumericTree(binOpNode.left) && isNumericTree(binOpNode.right);
+        return false;
+    }
+
+    static boolean isNumericOperator(Token opTok)
+    {
+        return opTok.type.equals(Tokens.TT_PLUS) || opTok.type.equals(Tokens.TT_MINUS)
+            || opTok.type.equals(Tokens.TT_MULT) || opTok.type.equals(Tokens.TT_DIV)
+            || opTok.type.equals(Tokens.TT_POW) || isComparison(opTok)
+            || opTok.matches(Tokens.TT_KEYWORD, "and") || opTok.matches(Tokens.TT_KEYWORD, "or");
+    }
+
+    static boolean isComparison(Token opTok)
+    {
+        return opTok.type.equals(Tokens.TT_EQ) || opTok.type.equals(Tokens.TT_NE)
+            || opTok.type.equals(Tokens.TT_LT) || opTok.type.equals(Tokens.TT_GT)
+            || opTok.type.equals(Tokens.TT_LTE) || opTok.type.equals(Tokens.TT_GTE);
+    }
+
+    // null when a variable of the tree does not currently hold a number
+    static NumericCode specialize(Node node, Context context)
+    {
+        if (node instanceof NumberNode numberNode) return literal(numberNode);
+        if (node instanceof VarAccessNode varAccessNode) return variable(varAccessNode, context);
+        if (node instanceof UnaryOpNode unaryOpNode) return unary(unaryOpNode, context);
+        if (node instanceof BinOpNode binOpNode) return binary(binOpNode, context);
+        if (node instanceof InvariantNode invariantNode) return specialize(invariantNode.expr, context);
+        return null;
+    }
+
+    static NumericCode literal(NumberNode node)
+    {
+        if (node.constant instanceof IntegerValue integerValue) {
+            long value = integerValue.intValue;
+            return new NumericCode(true) {
+                @Override
+                long executeLong(Context context) {
+                    return value;
+                }
+            };
+        }
+        double value = node.constant.value;
+        return new NumericCode(false) {
+            @Override
+            double executeDouble(Context context) {
+                return value;
+            }
+        };
+    }
+
+    static NumericCode variable(VarAccessNode node, Context context)
+    {
+        String varName = node.varNameTok.value.toString();
+        int slot = node.slot;
+        Value current = context.symbolTable.get(slot, varName);
+
+        if (current instanceof IntegerValue) {
+            return new NumericCode(true) {
+                @Override
+                long executeLong(Context context) {
+                    if (context.symbolTable.get(slot, varName) instanceof IntegerValue integerValue) return integerValue.intValue;
+                    throw NumericBailout.INSTANCE;
+                }
+            };
+        }
+        if (current instanceof NumberValue) {
+            return new NumericCode(false) {
+                @Override
+                double executeDouble(Context context) {
+                    Value value = context.symbolTable.get(slot, varName);
+                    if (value instanceof NumberValue numberValue && !(value instanceof IntegerValue)) return numberValue.value;
+                    throw NumericBailout.INSTANCE;
+                }
+            };
+        }
+        return null;
+    }
+
+    static NumericCode unary(UnaryOpNode node, Context context)
+    {
+        NumericCode operand = specialize(node.node, context);
+        if (operand == null) return null;
+
+        if (node.opTok.type.equals(Tokens.TT_MINUS)) {
+            if (operand.integral) {
+                return new NumericCode(true) {
+                    @Override
+                    long executeLong(Context context) {
+                        long value = operand.executeLong(context);
+                        if (value == Long.MIN_VALUE || value == 0) throw NumericBailout.INSTANCE;
+                        return -value;
+                    }
+                };
+            }
+            return new NumericCode(false) {
+                @Override
+                double executeDouble(Context context) {
+                    return operand.executeDouble(context) * -1;
+                }
+            };
+        }
+        if (node.opTok.matches(Tokens.TT_KEYWORD, "not")) {
+            return new NumericCode(true) {
+                @Override
+                long executeLong(Context context) {
+                    return operand.test(context) ? 0 : 1;
+                }
+            };
+        }
+        return operand;
+    }
+
+    static NumericCode binary(BinOpNode node, Context context)
+    {
+        NumericCode left = specialize(node.left, context);
+        if (left == null) return null;
+        NumericCode right = specialize(node.right, context);
+        if (right == null) return null;
+        boolean integral = left.integral && right.integral;
+        Token opTok = node.opTok;
+
+        if (opTok.type.equals(Tokens.TT_PLUS))
+            return integral ? longOperation(left, right, Math::addExact) : doubleOperation(left, right, (a, b) -> a + b);
+        if (opTok.type.equals(Tokens.TT_MINUS))
+            return integral ? longOperation(left, right, Math::subtractExact) : doubleOperation(left, right, (a, b) -> a - b);
+        if (opTok.type.equals(Tokens.TT_MULT))
+            return integral ? longOperation(left, right, (a, b) -> {
+                if (IntegerValue.isNegativeZero(a, b)) throw NumericBailout.INSTANCE;
+                return Math.multiplyExact(a, b);
+            }) : doubleOperation(left, right, (a, b) -> a * b);
+        if (opTok.type.equals(Tokens.TT_DIV))
+            return doubleOperation(left, right, (a, b) -> {
+                if (b == 0) throw NumericBailout.INSTANCE;
+                return a / b;
+            });
+        if (opTok.type.equals(Tokens.TT_POW))
+            return integral ? longOperation(left, right, (a, b) -> {
+                if (b < 0) throw NumericBailout.INSTANCE;
+                return IntegerValue.exactPow(a, b);
+            }) : doubleOperation(left, right, Math::pow);
+        if (opTok.type.equals(Tokens.TT_EQ))
+            return comparison(left, right, (a, b) -> a == b ? 1 : 0, (a, b) -> a == b ? 1 : 0);
+        if (opTok.type.equals(Tokens.TT_NE))
+            return comparison(left, right, (a, b) -> a != b ? 1 : 0, (a, b) -> a != b ? 1 : 0);
+        if (opTok.type.equals(Tokens.TT_LT))
+            return comparison(left, right, (a, b) -> a < b ? 1 : 0, (a, b) -> a < b ? 1 : 0);
+        if (opTok.type.equals(Tokens.TT_GT))
+            return comparison(left, right, (a, b) -> a > b ? 1 : 0, (a, b) -> a > b ? 1 : 0);
+        if (opTok.type.equals(Tokens.TT_LTE))
+            return comparison(left, right, (a, b) -> a <= b ? 1 : 0, (a, b) -> a <= b ? 1 : 0);
+        if (opTok.type.equals(Tokens.TT_GTE))
+            return comparison(left, right, (a, b) -> a >= b ? 1 : 0, (a, b) -> a >= b ? 1 : 0);
+
+        // and/or evaluate both sides like the boxed operators do
+        boolean and = opTok.matches(Tokens.TT_KEYWORD, "and");
+        return new NumericCode(true) {
+            @Override
+            long executeLong(Context context) {
+                boolean leftTruth = left.test(context);
+                boolean rightTruth = right.test(context);
+                return (and ? leftTruth && rightTruth : leftTruth || rightTruth) ? 1 : 0;
+            }
+        };
+    }
+
+    static NumericCode longOperation(NumericCode left, NumericCode right, LongOperation operation)
+    {
+        return new NumericCode(true) {
+            @Override
+            long executeLong(Context context) {
+                long leftValue = left.executeLong(context);
+                try {
+                    return operation.apply(leftValue, right.executeLong(context));
+                } catch (ArithmeticException overflow) {
+                    throw NumericBailout.INSTANCE;
+                }
+            }
+        };
+    }
+
+    static NumericCode doubleOperation(NumericCode left, NumericCode right, DoubleOperation operation)
+    {
+        return new NumericCode(false) {
+            @Override
+            double executeDouble(Context context) {
+                double leftValue = left.executeDouble(context);
+                return operation.apply(leftValue, right.executeDouble(context));
+            }
+        };
+    }
+
+    static NumericCode comparison(NumericCode left, NumericCode right, LongOperation longCompare, DoubleOperation doubleCompare)
+    {
+        if (left.integral && right.integral) {
+            return new NumericCode(true) {
+                @Override
+                long executeLong(Context context) {
+                    long leftValue = left.executeLong(context);
+                    return longCompare.apply(leftValue, right.executeLong(context));
+                }
+            };
+        }
+        return new NumericCode(true) {
+            @Override
+            long executeLong(Context context) {
+                double leftValue = left.executeDouble(context);
+                return (long) doubleCompare.apply(leftValue, right.executeDouble(context));
+            }
+        };
+    }
+}
+
+/*
+ * Root of an unboxed expression tree: the number only becomes a NumberValue
+ * here, where it escapes. A bailout drops the specialization; after a few
+ * failed attempts the site stays on the boxed closure for good, so sites that
+ * keep changing kind pay for speculation only a bounded number of times.
+ */
+class NumericFastPath implements CompiledCode
+{
+    static final int MAX_SPECIALIZATIONS = 4;
+    static final int FALSE = 0, TRUE = 1, BOXED = 2;
+
+    final Node node;
+    final CompiledCode boxed;
+    NumericCode specialized;
+    int specializations = 0;
+
+    NumericFastPath(Node node, CompiledCode boxed) {
+        this.node = node;
+        this.boxed = boxed;
+    }
+
+    private NumericCode specialized(Context context) {
+        if (specialized == null && specializations < MAX_SPECIALIZATIONS) {
+            specializations++;
+            specialized = NumericCode.specialize(node, context);
+        }
+        return specialized;
+    }
+
+    @Override
+    public RTResult execute(Context context) {
+        NumericCode numeric = specialized(context);
+        if (numeric != null) {
+            try {
+                NumberValue value = numeric.integral
+                    ? new IntegerValue(numeric.executeLong(context))
+                    : new NumberValue(numeric.executeDouble(context));
+                return context.result.success(value.setContext(context).setPos(node.pos_start, node.pos_end));
+            } catch (NumericBailout bailout) {
+                specialized = null;
+            }
+        }
+        return boxed.execute(context);
+    }
+
+    // truth of the expression when used as a condition, so it never has to be boxed;
+    // BOXED means the caller has to run the boxed closure itself
+    int test(Context context) {
+        NumericCode numeric = specialized(context);
+        if (numeric != null) {
+            try {
+                return numeric.test(context) ? TRUE : FALSE;
+            } catch (NumericBailout bailout) {
+                specialized = null;
+            }
+        }
+        return BOXED;
+    }
+}
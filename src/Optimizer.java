@@ -0,0 +1,289 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+/*
+ * Rewrites a parsed program before the Resolver sees it. An operator whose
+ * operands are number literals is evaluated once, with the same Value methods
+ * the engines call, and becomes the literal it gives; one that fails (a division
+ * by zero, say) is kept so it still fails where it runs. The cases of an if
+ * with a constant condition are dropped, or become its else when the condition
+ * holds. Statements after a stop, a proceed or a give that cannot fail in the
+ * same block are removed as nothing can reach them (a give whose expression
+ * fails does nothing), as are literals in a loop body whose results are not
+ * kept. Arithmetic in a loop body over variables the loop never assigns is
+ * wrapped in an InvariantNode, which computes it once and reuses the value
+ * while those variables are unchanged. Last, the shapes
+ * FusedNodes.java covers (counting a variable up or down, comparing two
+ * variables or literals in a condition, indexing a list variable) are fused
+ * into one node each.
+ */
+class Optimizer
+{
+    private Optimizer() {}
+
+    public static Node optimize(Node node)
+    {
+        node = rewrite(node);
+        return fuse(node, listVariables(node, new HashSet<>()));
+    }
+
+    private static Node rewrite(Node node)
+    {
+        if (node == null) return null;
+        if (node instanceof UnaryOpNode unaryOpNode)
+        {
+            unaryOpNode.node = rewrite(unaryOpNode.node);
+            return fold(unaryOpNode);
+        }
+        else if (node instanceof BinOpNode binOpNode)
+        {
+            binOpNode.left = rewrite(binOpNode.left);
+            binOpNode.right = rewrite(binOpNode.right);
+            return fold(binOpNode);
+        }
+        else if (node instanceof ListNode listNode)
+        {
+            listNode.elementNodes = reachable(listNode.elementNodes);
+            // a literal whose value is dropped does nothing
+            if (listNode.discardsValue) listNode.elementNodes.removeIf(element -> element instanceof NumberNode || element instanceof StringNode);
+        }
+        else if (node instanceof IfNode ifNode) return prune(ifNode);
+        else
+        {
+            rewriteChildren(node, Optimizer::rewrite);
+            if (node instanceof ForNode forNode)
+            {
+                Set<String> assigned = assignedIn(forNode.bodyNode, new HashSet<>());
+                assigned.add(forNode.varNameTok.value.toString());
+                forNode.bodyNode = invariants(forNode.bodyNode, assigned);
+                forNode.counterUnread = !observes(forNode.bodyNode, forNode.varNameTok.value.toString());
+            }
+            else if (node instanceof WhileNode whileNode)
+            {
+                Set<String> assigned = assignedIn(whileNode.bodyNode, new HashSet<>());
+                whileNode.conditionNode = invariants(whileNode.conditionNode, assigned);
+                whileNode.bodyNode = invariants(whileNode.bodyNode, assigned);
+            }
+        }
+        return node;
+    }
+
+    // lists is every name the program assigns a list literal; `/` on any other is taken to be division
+    private static Node fuse(Node node, Set<String> lists)
+    {
+        if (node == null || node instanceof FusedNode) return node;
+        if (node instanceof IfNode ifNode)
+            for (ConditionTuple ifCase : ifNode.cases) ifCase.condition = fuseCondition(ifCase.condition);
+        else if (node instanceof WhileNode whileNode) whileNode.conditionNode = fuseCondition(whileNode.conditionNode);
+        rewriteChildren(node, child -> fuse(child, lists));
+
+        if (node instanceof VarAssignNode varAssignNode && IncrementNode.fits(varAssignNode)) return new IncrementNode(varAssignNode);
+        if (node instanceof BinOpNode binOpNode && IndexNode.fits(binOpNode)
+            && lists.contains(((VarAccessNode) binOpNode.left).varNameTok.value.toString())) return new IndexNode(binOpNode);
+        return node;
+    }
+
+    // only the truth of a condition is read
+    private static Node fuseCondition(Node condition)
+    {
+        return CompareNode.fits(condition) ? new CompareNode((BinOpNode) condition) : condition;
+    }
+
+    // replaces each child of node with what rewrite gives for it
+    private static void rewriteChildren(Node node, UnaryOperator<Node> rewrite)
+    {
+        if (node instanceof UnaryOpNode unaryOpNode) unaryOpNode.node = rewrite.apply(unaryOpNode.node);
+        else if (node instanceof BinOpNode binOpNode)
+        {
+            binOpNode.left = rewrite.apply(binOpNode.left);
+            binOpNode.right = rewrite.apply(binOpNode.right);
+        }
+        else if (node instanceof ListNode listNode) listNode.elementNodes.replaceAll(rewrite);
+        else if (node instanceof VarAssignNode varAssignNode) varAssignNode.valueNode = rewrite.apply(varAssignNode.valueNode);
+        else if (node instanceof IfNode ifNode)
+        {
+            for (ConditionTuple ifCase : ifNode.cases)
+            {
+                ifCase.condition = rewrite.apply(ifCase.condition);
+                ifCase.statementsOrExpression = rewrite.apply(ifCase.statementsOrExpression);
+            }
+            if (ifNode.elseCase != null) ifNode.elseCase.statementsOrExpression = rewrite.apply(ifNode.elseCase.statementsOrExpression);
+        }
+        else if (node instanceof ForNode forNode)
+        {
+            forNode.startValueNode = rewrite.apply(forNode.startValueNode);
+            forNode.endValueNode = rewrite.apply(forNode.endValueNode);
+            if (forNode.stepValueNode != null) forNode.stepValueNode = rewrite.apply(forNode.stepValueNode);
+            forNode.bodyNode = rewrite.apply(forNode.bodyNode);
+        }
+        else if (node instanceof WhileNode whileNode)
+        {
+            whileNode.conditionNode = rewrite.apply(whileNode.conditionNode);
+            whileNode.bodyNode = rewrite.apply(whileNode.bodyNode);
+        }
+        else if (node instanceof FuncDefNode funcDefNode) funcDefNode.bodyNode = rewrite.apply(funcDefNode.bodyNode);
+        else if (node instanceof CallNode callNode)
+        {
+            callNode.nodeToCall = rewrite.apply(callNode.nodeToCall);
+            callNode.argNodes.replaceAll(rewrite);
+        }
+        else if (node instanceof ReturnNode returnNode && returnNode.returnNode != null) returnNode.returnNode = rewrite.apply(returnNode.returnNode);
+        else if (node instanceof InvariantNode invariantNode) invariantNode.expr = rewrite.apply(invariantNode.expr);
+    }
+
+    // the statements up to and including the first one that always leaves the block
+    private static List<Node> reachable(List<Node> statements)
+    {
+        List<Node> kept = new ArrayList<>(statements.size());
+        for (Node statement : statements) {
+            Node optimized = rewrite(statement);
+            kept.add(optimized);
+            if (leaves(optimized)) break;
+        }
+        return kept;
+    }
+
+    // whether statement always leaves its block: a give of nothing or of a literal cannot fail
+    private static boolean leaves(Node statement)
+    {
+        if (statement instanceof ReturnNode returnNode)
+            return returnNode.returnNode == null || returnNode.returnNode instanceof NumberNode || returnNode.returnNode instanceof StringNode;
+        return statement instanceof BreakNode || statement instanceof ContinueNode;
+    }
+
+    private static Node fold(UnaryOpNode node)
+    {
+        if (!(node.node instanceof NumberNode operand)) return node;
+        RTResult res = new RTResult();
+        if (node.opTok.type.equals(Tokens.TT_MINUS)) operand.constant.multedBy(IntegerValue.MINUS_ONE, res);
+        else if (node.opTok.matches(Tokens.TT_KEYWORD, "not")) operand.constant.notted(res);
+        else return operand;
+        return literal(res, node);
+    }
+
+    private static Node fold(BinOpNode node)
+    {
+        if (!(node.left instanceof NumberNode left) || !(node.right instanceof NumberNode right)) return node;
+        RTResult res = ClosureCompiler.binaryOperation(node.opTok).apply(left.constant, right.constant, new RTResult());
+        return literal(res, node);
+    }
+
+    // the number an operation gave, as a literal spanning the node it replaces
+    private static Node literal(RTResult res, Node node)
+    {
+        if (res.err != null || !(res.value instanceof NumberValue value)) return node;
+        Token tok = (value instanceof IntegerValue integerValue)
+            ? new Token(Tokens.TT_INT, integerValue.intValue, node.pos_start, node.pos_end)
+            : new Token(Tokens.TT_FLOAT, value.value, node.pos_start, node.pos_end);
+        return new NumberNode(tok, value);
+    }
+
+    private static Node prune(IfNode node)
+    {
+        List<ConditionTuple> cases = new ArrayList<>(node.cases.size());
+        ConditionTuple elseCase = node.elseCase;
+        boolean decided = false;
+        for (ConditionTuple ifCase : node.cases)
+        {
+            ifCase.condition = rewrite(ifCase.condition);
+            ifCase.statementsOrExpression = rewrite(ifCase.statementsOrExpression);
+            if (!(ifCase.condition instanceof NumberNode condition))
+            {
+                cases.add(ifCase);
+                continue;
+            }
+            if (condition.constant.isTrue())
+            {
+                // every later case is unreachable, and this one needs no test
+                elseCase = new ConditionTuple(null, ifCase.statementsOrExpression, ifCase.isStatementBlock);
+                decided = true;
+                break;
+            }
+        }
+        if (!decided && elseCase != null) elseCase.statementsOrExpression = rewrite(elseCase.statementsOrExpression);
+
+        node.cases = cases;
+        node.elseCase = elseCase;
+        // an expression if that always takes the same branch is that branch
+        if (cases.isEmpty() && elseCase != null && !elseCase.isStatementBlock) return elseCase.statementsOrExpression;
+        return node;
+    }
+
+    // whether running node could read or assign varName: called tasks see the caller's variables
+    private static boolean observes(Node node, String varName)
+    {
+        if (node == null) return false;
+        if (node instanceof CallNode || node instanceof FuncDefNode) return true;
+        if (node instanceof VarAccessNode varAccessNode && varAccessNode.varNameTok.value.equals(varName)) return true;
+        if (node instanceof VarAssignNode varAssignNode && varAssignNode.varNameTok.value.equals(varName)) return true;
+        if (node instanceof ForNode forNode && forNode.varNameTok.value.equals(varName)) return true;
+        boolean[] seen = { false };
+        rewriteChildren(node, child -> {
+            seen[0] |= observes(child, varName);
+            return child;
+        });
+        return seen[0];
+    }
+
+    private static Set<String> listVariables(Node node, Set<String> lists)
+    {
+        if (node instanceof VarAssignNode varAssignNode && varAssignNode.valueNode instanceof ListNode)
+            lists.add(varAssignNode.varNameTok.value.toString());
+        if (node != null) rewriteChildren(node, child -> {
+            listVariables(child, lists);
+            return child;
+        });
+        return lists;
+    }
+
+    // names the statements assign in their own frame; a nested task body runs in another
+    private static Set<String> assignedIn(Node node, Set<String> assigned)
+    {
+        if (node == null) return assigned;
+        if (node instanceof VarAssignNode varAssignNode) assigned.add(varAssignNode.varNameTok.value.toString());
+        else if (node instanceof ForNode forNode) assigned.add(forNode.varNameTok.value.toString());
+        else if (node instanceof FuncDefNode funcDefNode)
+        {
+            if (funcDefNode.varNameTok != null) assigned.add(funcDefNode.varNameTok.value.toString());
+            return assigned;
+        }
+        rewriteChildren(node, child -> {
+            assignedIn(child, assigned);
+            return child;
+        });
+        return assigned;
+    }
+
+    // node with its largest loop-invariant operator trees wrapped in InvariantNodes
+    private static Node invariants(Node node, Set<String> assigned)
+    {
+        if (node == null || node instanceof FuncDefNode || node instanceof InvariantNode) return node;
+        if (node instanceof UnaryOpNode || node instanceof BinOpNode)
+        {
+            List<VarAccessNode> inputs = new ArrayList<>();
+            if (readsOnly(node, assigned, inputs) && !inputs.isEmpty()) return new InvariantNode(node, inputs);
+        }
+        rewriteChildren(node, child -> invariants(child, assigned));
+        return node;
+    }
+
+    // whether node is arithmetic over literals and variables outside assigned, collecting the variables
+    private static boolean readsOnly(Node node, Set<String> assigned, List<VarAccessNode> inputs)
+    {
+        if (node instanceof NumberNode) return true;
+        if (node instanceof VarAccessNode varAccessNode)
+        {
+            String varName = varAccessNode.varNameTok.value.toString();
+            if (assigned.contains(varName)) return false;
+            if (inputs.stream().noneMatch(input -> input.varNameTok.value.equals(varName))) inputs.add(varAccessNode);
+            return true;
+        }
+        if (node instanceof UnaryOpNode unaryOpNode) return readsOnly(unaryOpNode.node, assigned, inputs);
+        if (node instanceof BinOpNode binOpNode)
+            return readsOnly(binOpNode.left, assigned, inputs) && readsOnly(binOpNode.right, assigned, inputs);
+        return false;
+    }
+}
@@ -1,5 +1,7 @@
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 class ParseResult 
 {
@@ -45,40 +47,118 @@ class ParseResult
 
 }
 
+/*
+ * Numeric literals of one program, converted from their token text exactly once.
+ * Equal literals share one unpositioned value; each NumberNode keeps a positioned
+ * copy of it.
+ */
+class ConstantPool
+{
+    private final Map<String, NumberValue> numbers = new HashMap<>();
+
+    public NumberValue number(Token tok) {
+        return numbers.computeIfAbsent(tok.type + ":" + tok.value, key -> {
+            NumberValue value = tok.kind == TokenKind.INT
+                ? new IntegerValue(((Number) tok.value).longValue())
+                : new NumberValue(((Number) tok.value).doubleValue());
+            return (NumberValue) value.share();
+        });
+    }
+
+    public int size() {
+        return numbers.size();
+    }
+}
+
+// the tokens a Parser reads, by index; null past the end
+interface TokenSource
+{
+    Token get(int index);
+
+    // the parser will not go back before index
+    default void release(int index) {}
+}
 
 class Parser 
 {
-    private final List<Token> tokens;
+    private final TokenSource tokens;
     private int tokIdx;
+    private int currentIdx = -1; // the index currentTok was made from
+    private int nearest, furthest; // the range of tokens moved over since the last mark
     private Token currentTok;
+    final ConstantPool constants;
 
-    public Parser(List<Token> tokens) {
+    public Parser(TokenSource tokens) {
+        this(tokens, new ConstantPool());
+    }
+
+    public Parser(TokenSource tokens, ConstantPool constants) {
         this.tokens = tokens;
+        this.constants = constants;
         tokIdx = -1;
         advance();
     }
 
     public final Token advance() {
         tokIdx++;
+        if (tokIdx > furthest) furthest = tokIdx;
         updateCurrentTok();
         return currentTok;
     }
 
     public Token reverse(int amount) {
         tokIdx -= amount;
+        if (tokIdx < nearest) nearest = tokIdx;
         updateCurrentTok();
         return currentTok;
     }
 
+    // moves to the token at index, where a statement can be parsed on its own
+    void seek(int index) {
+        tokIdx = index;
+        updateCurrentTok();
+        mark();
+    }
+
+    // starts the range of tokens moved over again from the current one
+    void mark() {
+        nearest = tokIdx;
+        furthest = tokIdx;
+    }
+
+    int index() {
+        return tokIdx;
+    }
+
+    int nearest() {
+        return nearest;
+    }
+
+    int furthest() {
+        return furthest;
+    }
+
+    Token currentTok() {
+        return currentTok;
+    }
+
+    // whether currentTok is the token at index(), which a reverse out of range leaves it not
+    boolean atIndex() {
+        return tokIdx == currentIdx;
+    }
+
     private void updateCurrentTok() {
-        if (tokIdx >= 0 && tokIdx < tokens.size()) {
-            currentTok = tokens.get(tokIdx);
+        if (tokIdx == currentIdx) return;
+        Token tok = tokIdx >= 0 ? tokens.get(tokIdx) : null;
+        if (tok != null) {
+            currentTok = tok;
+            currentIdx = tokIdx;
         }
     }
 
     public ParseResult parse() {
-        ParseResult res = statements();
-        if (res.err != null && !currentTok.type.equals(Tokens.TT_EOF)) {
+        ParseResult res = statements(true);
+        if (res.err != null && currentTok.kind != TokenKind.EOF) {
             return res.failure(new InvalidSyntaxError(
                     currentTok.pos_start, currentTok.pos_end,
                     " Token cannot appear after previous tokens"
@@ -89,28 +169,36 @@ class Parser
 
     //STATEMENTS
     ParseResult statements() {
+        return statements(false);
+    }
+
+    // at the top level the tokens before the statement ahead of the current one are released
+    private ParseResult statements(boolean releasing) {
         ParseResult res = new ParseResult();
         List<Node> statements = new ArrayList<>();
         Position pos_start = currentTok.pos_start.copy();
 
-        while (currentTok.type.equals(Tokens.TT_NEWLINE)) {
+        while (currentTok.kind == TokenKind.NEWLINE) {
             res.registerAdvancement();
             advance();
         }
 
+        int previous = tokIdx;
         Node statement = res.register(statement());
         if (res.err != null) return res;
         statements.add(statement);
 
         while (true) {
             int newlineCount = 0;
-            while (currentTok.type.equals(Tokens.TT_NEWLINE)) {
+            while (currentTok.kind == TokenKind.NEWLINE) {
                 res.registerAdvancement();
                 advance();
                 newlineCount++;
             }
             if (newlineCount == 0) break;
 
+            if (releasing) tokens.release(previous);
+            previous = tokIdx;
             statement = res.tryRegister(statement());
             if (statement == null) {
                 reverse(res.toReverseCount);
@@ -126,7 +214,7 @@ class Parser
         ParseResult res = new ParseResult();
         Position pos_start = currentTok.pos_start.copy();
 
-        if (currentTok.matches(Tokens.TT_KEYWORD, "give")) {
+        if (currentTok.matches(TokenKind.KEYWORD, "give")) {
             res.registerAdvancement();
             advance();
 
@@ -137,13 +225,13 @@ class Parser
             return res.success(new ReturnNode(expr, pos_start, currentTok.pos_start.copy()));
         }
 
-        if (currentTok.matches(Tokens.TT_KEYWORD, "proceed")) {
+        if (currentTok.matches(TokenKind.KEYWORD, "proceed")) {
             res.registerAdvancement();
             advance();
             return res.success(new ContinueNode(pos_start, currentTok.pos_start.copy()));
         }
 
-        if (currentTok.matches(Tokens.TT_KEYWORD, "stop")) {
+        if (currentTok.matches(TokenKind.KEYWORD, "stop")) {
             res.registerAdvancement();
             advance();
             return res.success(new BreakNode(pos_start, currentTok.pos_start.copy()));
@@ -162,11 +250,11 @@ class Parser
     ParseResult expr() {
         ParseResult res = new ParseResult();
 
-        if (currentTok.matches(Tokens.TT_KEYWORD, "this")) {
+        if (currentTok.matches(TokenKind.KEYWORD, "this")) {
             res.registerAdvancement();
             advance();
 
-            if (!currentTok.type.equals(Tokens.TT_IDENTIFIER)) {
+            if (currentTok.kind != TokenKind.IDENTIFIER) {
                 return res.failure(new InvalidSyntaxError(
                         currentTok.pos_start, currentTok.pos_end,
                         " Expected identifier"
@@ -177,7 +265,7 @@ class Parser
             res.registerAdvancement();
             advance();
 
-            if (!currentTok.matches(Tokens.TT_KEYWORD, "is")) {
+            if (!currentTok.matches(TokenKind.KEYWORD, "is")) {
                 return res.failure(new InvalidSyntaxError(
                         currentTok.pos_start, currentTok.pos_end,
                         " Expected 'is'"
@@ -195,7 +283,7 @@ class Parser
         Node left = res.register(comp_expr());
         if(res.err != null) return res;
 
-        while(currentTok.matches(Tokens.TT_KEYWORD, "and") || currentTok.matches(Tokens.TT_KEYWORD, "or"))
+        while(currentTok.matches(TokenKind.KEYWORD, "and") || currentTok.matches(TokenKind.KEYWORD, "or"))
         {
             Token op_tok = currentTok;
             res.registerAdvancement();
@@ -219,7 +307,7 @@ class Parser
     private ParseResult comp_expr() {
         ParseResult res = new ParseResult();
 
-        if (currentTok.matches(Tokens.TT_KEYWORD, "not")) {
+        if (currentTok.matches(TokenKind.KEYWORD, "not")) {
             Token opTok = currentTok;
             res.registerAdvancement();
             advance();
@@ -232,8 +320,8 @@ class Parser
         Node left = res.register(arith_expr());
         if(res.err != null) return res;
 
-        while(currentTok.type.equals(Tokens.TT_EQ) || currentTok.type.equals(Tokens.TT_NE) || currentTok.type.equals(Tokens.TT_LT) || 
-            currentTok.type.equals(Tokens.TT_GT) || currentTok.type.equals(Tokens.TT_LTE) || currentTok.type.equals(Tokens.TT_GTE))
+        while(currentTok.kind == TokenKind.EQ || currentTok.kind == TokenKind.NE || currentTok.kind == TokenKind.LT || 
+            currentTok.kind == TokenKind.GT || currentTok.kind == TokenKind.LTE || currentTok.kind == TokenKind.GTE)
         {
             Token op_tok = currentTok;
             res.registerAdvancement();
@@ -261,7 +349,7 @@ class Parser
         Node left = res.register(term());
         if(res.err != null) return res;
 
-        while(currentTok.type.equals(Tokens.TT_PLUS) || currentTok.type.equals(Tokens.TT_MINUS))
+        while(currentTok.kind == TokenKind.PLUS || currentTok.kind == TokenKind.MINUS)
         {
             Token op_tok = currentTok;
             res.registerAdvancement();
@@ -280,7 +368,7 @@ class Parser
         Node left = res.register(factor());
         if(res.err != null) return res;
 
-        while(currentTok.type.equals(Tokens.TT_MULT) || currentTok.type.equals(Tokens.TT_DIV))
+        while(currentTok.kind == TokenKind.MULT || currentTok.kind == TokenKind.DIV)
         {
             Token op_tok = currentTok;
             res.registerAdvancement();
@@ -297,7 +385,7 @@ class Parser
         ParseResult res = new ParseResult();
         Token tok = currentTok;
 
-        if(tok.type.equals(Tokens.TT_PLUS) || tok.type.equals(Tokens.TT_MINUS))
+        if(tok.kind == TokenKind.PLUS || tok.kind == TokenKind.MINUS)
         {
             res.registerAdvancement();
             advance();
@@ -315,7 +403,7 @@ class Parser
         Node left = res.register(call());
         if(res.err != null) return res;
 
-        while(currentTok.type.equals(Tokens.TT_POW))
+        while(currentTok.kind == TokenKind.POW)
         {
             Token op_tok = currentTok;
             res.registerAdvancement();
@@ -332,13 +420,13 @@ class Parser
         ParseResult res = new ParseResult();
         Node atom = res.register(atom());
         if(res.err != null) return res;
-        if(currentTok.type.equals(Tokens.TT_LBRAC))
+        if(currentTok.kind == TokenKind.LBRAC)
         {
             res.registerAdvancement();
             advance();
             List<Node> argNodes = new ArrayList<>();
 
-            if(currentTok.type.equals(Tokens.TT_RBRAC))
+            if(currentTok.kind == TokenKind.RBRAC)
             {
                 res.registerAdvancement();
                 advance();
@@ -353,7 +441,7 @@ class Parser
                     " Expected ')', 'this', 'IF', 'FOR', 'WHILE', 'FUN', int, float, identifier, '+', '-', '(', '[' or 'NOT'"));
                 }
 
-                while(currentTok.type.equals(Tokens.TT_COMMA))
+                while(currentTok.kind == TokenKind.COMMA)
                 {
                     res.registerAdvancement();
                     advance();
@@ -362,7 +450,7 @@ class Parser
                     if(res.err != null) return res;
                 }
             }
-            if(!currentTok.type.equals(Tokens.TT_RBRAC))
+            if(currentTok.kind != TokenKind.RBRAC)
             {
                 return res.failure(new InvalidSyntaxError(
                 currentTok.pos_start, 
@@ -381,28 +469,28 @@ class Parser
         ParseResult res = new ParseResult();
         Token tok = currentTok;
 
-        if(tok.type.equals(Tokens.TT_INT) || tok.type.equals(Tokens.TT_FLOAT))
+        if(tok.kind == TokenKind.INT || tok.kind == TokenKind.FLOAT)
         {
             res.registerAdvancement();
             advance();
 
-            return res.success(new NumberNode(tok));
+            return res.success(new NumberNode(tok, constants.number(tok)));
         }
-        else if(tok.type.equals(Tokens.TT_STRING))
+        else if(tok.kind == TokenKind.STRING)
         {
             res.registerAdvancement();
             advance();
 
             return res.success(new StringNode(tok));
         }
-        else if(tok.type.equals(Tokens.TT_IDENTIFIER))
+        else if(tok.kind == TokenKind.IDENTIFIER)
         {
             res.registerAdvancement();
             advance();
 
             return res.success(new VarAccessNode(tok));
         }
-        else if(tok.type.equals(Tokens.TT_LBRAC))
+        else if(tok.kind == TokenKind.LBRAC)
         {
             res.registerAdvancement();
             advance();
@@ -410,7 +498,7 @@ class Parser
             Node expr = res.register(expr());
             if(res.err != null) return res;
 
-            if(currentTok.type.equals(Tokens.TT_RBRAC))
+            if(currentTok.kind == TokenKind.RBRAC)
             {
                 res.registerAdvancement();
                 advance();
@@ -425,34 +513,34 @@ class Parser
                 ));
             }
         }
-        else if(tok.type.equals(Tokens.TT_LSQBRAC))
+        else if(tok.kind == TokenKind.LSQBRAC)
         {
             Node list_expr = res.register(list_expr());
             if(res.err != null) return res;
             
             return res.success(list_expr);
         }
-        else if(tok.matches(Tokens.TT_KEYWORD, "if"))
+        else if(tok.matches(TokenKind.KEYWORD, "if"))
         {
             Node if_expr = res.register(if_expr());
             if(res.err != null) return res;
             
             return res.success(if_expr);
         }
-        else if(tok.matches(Tokens.TT_KEYWORD, "for"))
+        else if(tok.matches(TokenKind.KEYWORD, "for"))
         {
             Node for_expr = res.register(for_expr());
             if(res.err != null) return res;
             return res.success(for_expr);
         }
-        else if(tok.matches(Tokens.TT_KEYWORD, "until"))
+        else if(tok.matches(TokenKind.KEYWORD, "until"))
         {
             Node while_expr = res.register(while_expr());
             if(res.err != null) return res;
             
             return res.success(while_expr);
         }
-        else if(tok.matches(Tokens.TT_KEYWORD, "task"))
+        else if(tok.matches(TokenKind.KEYWORD, "task"))
         {
             Node func_expr = res.register(func_expr());
             if(res.err != null) return res;
@@ -473,7 +561,7 @@ class Parser
         List<Node> element_nodes = new ArrayList<>();
         Position pos_start = currentTok.pos_start.copy();
 
-        if(!currentTok.type.equals(Tokens.TT_LSQBRAC))
+        if(currentTok.kind != TokenKind.LSQBRAC)
         {
             return res.failure(new InvalidSyntaxError(
                 currentTok.pos_start,
@@ -485,7 +573,7 @@ class Parser
         res.registerAdvancement();
         advance();
 
-        if(currentTok.type.equals(Tokens.TT_RSQBRAC))
+        if(currentTok.kind == TokenKind.RSQBRAC)
         {
             res.registerAdvancement();
             advance();
@@ -501,7 +589,7 @@ class Parser
                 ));
             }
 
-            while(currentTok.type.equals(Tokens.TT_COMMA))
+            while(currentTok.kind == TokenKind.COMMA)
             {
                 res.registerAdvancement();
                 advance();
@@ -510,7 +598,7 @@ class Parser
                 if(res.err != null) return res;
             }
             
-            if(!currentTok.type.equals(Tokens.TT_RSQBRAC))
+            if(currentTok.kind != TokenKind.RSQBRAC)
             {
                 return res.failure(new InvalidSyntaxError(
                     currentTok.pos_start,
@@ -546,11 +634,11 @@ class Parser
         ParseResult res = new ParseResult();
         ConditionTuple elseCase = null;
 
-        if (currentTok.matches(Tokens.TT_KEYWORD, "else")) {
+        if (currentTok.matches(TokenKind.KEYWORD, "else")) {
             res.registerAdvancement();
             advance();
 
-            if (currentTok.type.equals(Tokens.TT_NEWLINE)) {
+            if (currentTok.kind == TokenKind.NEWLINE) {
                 res.registerAdvancement();
                 advance();
 
@@ -558,7 +646,7 @@ class Parser
                 if (res.err != null) return res;
                 elseCase = new ConditionTuple(null, statements, true);
 
-                if (currentTok.matches(Tokens.TT_KEYWORD, "enclose")) {
+                if (currentTok.matches(TokenKind.KEYWORD, "enclose")) {
                     res.registerAdvancement();
                     advance();
                 } else {
@@ -583,7 +671,7 @@ class Parser
         List<ConditionTuple> cases = new ArrayList<>();
         ConditionTuple elseCase;
 
-        if(currentTok.matches(Tokens.TT_KEYWORD, "elif"))
+        if(currentTok.matches(TokenKind.KEYWORD, "elif"))
         {
             Node allCases  = res.register(if_expr_butif());
             if(res.err != null) return res;
@@ -603,7 +691,7 @@ class Parser
         List<ConditionTuple> cases = new ArrayList<>();
         ConditionTuple elseCase = null;
     
-        if (!currentTok.matches(Tokens.TT_KEYWORD, caseKeyword)) {
+        if (!currentTok.matches(TokenKind.KEYWORD, caseKeyword)) {
             return res.failure(new InvalidSyntaxError(
                 currentTok.pos_start, currentTok.pos_end,
                 " Expected '" + caseKeyword + "'"
@@ -616,7 +704,7 @@ class Parser
         Node condition = res.register(expr());
         if (res.err != null) return res;
     
-        if (!currentTok.matches(Tokens.TT_KEYWORD, "do")) {
+        if (!currentTok.matches(TokenKind.KEYWORD, "do")) {
             return res.failure(new InvalidSyntaxError(
                 currentTok.pos_start, currentTok.pos_end,
                 " Expected 'do'"
@@ -626,7 +714,7 @@ class Parser
         res.registerAdvancement();
         advance();
     
-        if (currentTok.type.equals(Tokens.TT_NEWLINE)) 
+        if (currentTok.kind == TokenKind.NEWLINE) 
         {
             res.registerAdvancement();
             advance();
@@ -635,7 +723,7 @@ class Parser
             if (res.err != null) return res;
             cases.add(new ConditionTuple(condition, statements, true));
     
-            if (currentTok.matches(Tokens.TT_KEYWORD, "enclose")) {
+            if (currentTok.matches(TokenKind.KEYWORD, "enclose")) {
                 res.registerAdvancement();
                 advance();
             } else {
@@ -661,7 +749,7 @@ class Parser
     ParseResult for_expr() //you are a problem
     {
         ParseResult res = new ParseResult();
-        if(!currentTok.matches(Tokens.TT_KEYWORD, "for"))
+        if(!currentTok.matches(TokenKind.KEYWORD, "for"))
         {
             return res.failure(new InvalidSyntaxError(
                 currentTok.pos_start,
@@ -673,7 +761,7 @@ class Parser
         res.registerAdvancement();
         advance();
 
-        if(!currentTok.type.equals(Tokens.TT_IDENTIFIER))
+        if(currentTok.kind != TokenKind.IDENTIFIER)
         {
             return res.failure(new InvalidSyntaxError(
                 currentTok.pos_start,
@@ -686,7 +774,7 @@ class Parser
         res.registerAdvancement();
         advance();
 
-        if(!currentTok.matches(Tokens.TT_KEYWORD, "is"))
+        if(!currentTok.matches(TokenKind.KEYWORD, "is"))
         {
             return res.failure(new InvalidSyntaxError(
                 currentTok.pos_start,
@@ -701,7 +789,7 @@ class Parser
         Node start_value = res.register(expr());
         if(res.err != null) return res;
 
-        if(!currentTok.matches(Tokens.TT_KEYWORD, "to"))
+        if(!currentTok.matches(TokenKind.KEYWORD, "to"))
         {
             return res.failure(new InvalidSyntaxError(
                 currentTok.pos_start,
@@ -716,7 +804,7 @@ class Parser
         if(res.err != null) return res;
         Node step_value;
 
-        if(currentTok.matches(Tokens.TT_KEYWORD, "step"))
+        if(currentTok.matches(TokenKind.KEYWORD, "step"))
         {
             res.registerAdvancement();
             advance();
@@ -726,7 +814,7 @@ class Parser
         }
         else step_value = null;
 
-        if(!currentTok.matches(Tokens.TT_KEYWORD, "do"))
+        if(!currentTok.matches(TokenKind.KEYWORD, "do"))
         {
             return res.failure(new InvalidSyntaxError(
                 currentTok.pos_start,
@@ -738,7 +826,7 @@ class Parser
         res.registerAdvancement();
         advance();
 
-        if(currentTok.type.equals(Tokens.TT_NEWLINE))
+        if(currentTok.kind == TokenKind.NEWLINE)
         {
             res.registerAdvancement();
             advance();
@@ -746,7 +834,7 @@ class Parser
             Node body = res.register(statements());
             if(res.err != null) return res;
     
-            if(!currentTok.matches(Tokens.TT_KEYWORD, "enclose"))
+            if(!currentTok.matches(TokenKind.KEYWORD, "enclose"))
             {
                 return res.failure(new InvalidSyntaxError(
                     currentTok.pos_start,
@@ -758,13 +846,13 @@ class Parser
             res.registerAdvancement();
             advance();
     
-            return res.success(new ForNode(var_name, start_value, end_value, step_value, body, true));
+            return res.success(discardingBody(new ForNode(var_name, start_value, end_value, step_value, body, true), body));
         }
 
         Node body = res.register(statement());
         if(res.err != null) return res;
 
-        return res.success(new ForNode(var_name, start_value, end_value, step_value, body, false));
+        return res.success(discardingBody(new ForNode(var_name, start_value, end_value, step_value, body, false), body));
 
     }
 
@@ -772,7 +860,7 @@ class Parser
     {
         ParseResult res = new ParseResult();
 
-        if(!currentTok.matches(Tokens.TT_KEYWORD, "until"))
+        if(!currentTok.matches(TokenKind.KEYWORD, "until"))
         {
             return res.failure(new InvalidSyntaxError(
                     currentTok.pos_start,
@@ -787,7 +875,7 @@ class Parser
         Node condition = res.register(expr());
         if(res.err != null) return res;
 
-        if(!currentTok.matches(Tokens.TT_KEYWORD, "do"))
+        if(!currentTok.matches(TokenKind.KEYWORD, "do"))
         {
             return res.failure(new InvalidSyntaxError(
                     currentTok.pos_start,
@@ -799,7 +887,7 @@ class Parser
         res.registerAdvancement();
         advance();
 
-        if(currentTok.type.equals(Tokens.TT_NEWLINE))
+        if(currentTok.kind == TokenKind.NEWLINE)
         {
             res.registerAdvancement();
             advance();
@@ -807,7 +895,7 @@ class Parser
             Node body = res.register(statements());
             if(res.err != null) return res;
 
-            if(!currentTok.matches(Tokens.TT_KEYWORD, "enclose")) //youre probably a problem
+            if(!currentTok.matches(TokenKind.KEYWORD, "enclose")) //youre probably a problem
             {
                 return res.failure(new InvalidSyntaxError(
                     currentTok.pos_start,
@@ -819,17 +907,25 @@ class Parser
             res.registerAdvancement();
             advance();
 
-            return res.success(new WhileNode(condition, body, true));
+            return res.success(discardingBody(new WhileNode(condition, body, true), body));
         }
         Node body = res.register(statement());
-        return res.success(new WhileNode(condition, body, false));
+        return res.success(discardingBody(new WhileNode(condition, body, false), body));
+    }
+
+    // a loop only evaluates to its body results when isStatementBlock is set; otherwise
+    // it is NULL and the body runs for its effects alone
+    private static Node discardingBody(Node loop, Node body)
+    {
+        if (!loop.isStatementBlock && body instanceof ListNode listNode) listNode.discardsValue = true;
+        return loop;
     }
     
     ParseResult func_expr()
     {
         ParseResult res = new ParseResult();
 
-        if(!currentTok.matches(Tokens.TT_KEYWORD, "task"))
+        if(!currentTok.matches(TokenKind.KEYWORD, "task"))
         {
             return res.failure(new InvalidSyntaxError(
                     currentTok.pos_start,
@@ -842,12 +938,12 @@ class Parser
         advance();
 
         Token var_name_tok;
-        if(currentTok.type.equals(Tokens.TT_IDENTIFIER))
+        if(currentTok.kind == TokenKind.IDENTIFIER)
         {
             var_name_tok = currentTok;
             res.registerAdvancement();
             advance();
-            if(!currentTok.type.equals(Tokens.TT_LBRAC))
+            if(currentTok.kind != TokenKind.LBRAC)
             {
                 return res.failure(new InvalidSyntaxError(
                     currentTok.pos_start,
@@ -859,7 +955,7 @@ class Parser
         else{
             var_name_tok = null;
             System.out.println(currentTok.repr());
-            if(!currentTok.type.equals(Tokens.TT_RBRAC))
+            if(currentTok.kind != TokenKind.RBRAC)
             {
                 return res.failure(new InvalidSyntaxError(
                     currentTok.pos_start,
@@ -873,18 +969,18 @@ class Parser
         advance();
         List<Token> arg_name_toks = new ArrayList<>();
 
-        if(currentTok.type.equals(Tokens.TT_IDENTIFIER))
+        if(currentTok.kind == TokenKind.IDENTIFIER)
         {
             arg_name_toks.add(currentTok);
             res.registerAdvancement();
             advance();
 
-            while(currentTok.type.equals(Tokens.TT_COMMA))
+            while(currentTok.kind == TokenKind.COMMA)
             {
                 res.registerAdvancement();
                 advance();
 
-                if(!currentTok.type.equals(Tokens.TT_IDENTIFIER))
+                if(currentTok.kind != TokenKind.IDENTIFIER)
                 {
                     return res.failure(new InvalidSyntaxError(
                     currentTok.pos_start,
@@ -897,7 +993,7 @@ class Parser
                 res.registerAdvancement();
                 advance();
             }
-            if(!currentTok.type.equals(Tokens.TT_RBRAC))
+            if(currentTok.kind != TokenKind.RBRAC)
             {
                 return res.failure(new InvalidSyntaxError(
                     currentTok.pos_start,
@@ -907,7 +1003,7 @@ class Parser
             }
         }
         else{
-            if(!currentTok.type.equals(Tokens.TT_RBRAC))
+            if(currentTok.kind != TokenKind.RBRAC)
             {
                 return res.failure(new InvalidSyntaxError(
                     currentTok.pos_start,
@@ -920,7 +1016,15 @@ class Parser
         res.registerAdvancement();
         advance();
 
-        if(!currentTok.type.equals(Tokens.TT_NEWLINE))
+        // `task name(args) memo`: results are cached on the argument values
+        boolean memoize = currentTok.kind == TokenKind.IDENTIFIER && currentTok.value.equals("memo");
+        if(memoize)
+        {
+            res.registerAdvancement();
+            advance();
+        }
+
+        if(currentTok.kind != TokenKind.NEWLINE)
         {
             return res.failure(new InvalidSyntaxError(
                     currentTok.pos_start,
@@ -935,7 +1039,7 @@ class Parser
         Node body = res.register(statements());
         if(res.err != null) return res;
 
-        if(!currentTok.matches(Tokens.TT_KEYWORD, "enclose"))
+        if(!currentTok.matches(TokenKind.KEYWORD, "enclose"))
         {
             return res.failure(new InvalidSyntaxError(
                     currentTok.pos_start,
@@ -947,6 +1051,8 @@ class Parser
         res.registerAdvancement();
         advance();
 
-        return res.success(new FuncDefNode(var_name_tok, arg_name_toks, body, false));
+        FuncDefNode funcDefNode = new FuncDefNode(var_name_tok, arg_name_toks, body, false);
+        funcDefNode.memoize = memoize;
+        return res.success(funcDefNode);
     }
 }
@@ -0,0 +1,173 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/*
+ * Immutable vector stored as a 32-way trie, with the last (up to) 32 elements
+ * kept apart in a tail array, after Clojure's PersistentVector. Appending copies
+ * the tail, or one root-to-leaf path when the tail is full, so a new version
+ * shares everything else with the one it was made from. Lookups walk at most
+ * log32(n) levels; take(n) cuts a prefix the same way.
+ */
+final class PersistentVector<E> extends AbstractList<E>
+{
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+    private static final Object[] EMPTY_NODE = new Object[WIDTH];
+    private static final PersistentVector<?> EMPTY = new PersistentVector<>(0, BITS, EMPTY_NODE, new Object[0]);
+
+    private final int size;
+    private final int shift; // bits of the index consumed by the root level
+    private final Object[] root;
+    private final Object[] tail;
+
+    private PersistentVector(int size, int shift, Object[] root, Object[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <E> PersistentVector<E> empty() {
+        return (PersistentVector<E>) EMPTY;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <E> PersistentVector<E> of(List<? extends E> elements) {
+        if (elements instanceof PersistentVector) return (PersistentVector<E>) elements;
+        return PersistentVector.<E>empty().appendAll(elements);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    // index of the first element in the tail; every leaf before it is full
+    private int tailOffset() {
+        return size < WIDTH ? 0 : ((size - 1) >>> BITS) << BITS;
+    }
+
+    private Object[] leafFor(int index) {
+        if (index >= tailOffset()) return tail;
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(index >>> level) & MASK];
+        }
+        return node;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        Objects.checkIndex(index, size);
+        return (E) leafFor(index)[index & MASK];
+    }
+
+    PersistentVector<E> append(E element) {
+        if (size - tailOffset() < WIDTH) {
+            Object[] newTail = Arrays.copyOf(tail, tail.length + 1);
+            newTail[tail.length] = element;
+            return new PersistentVector<>(size + 1, shift, root, newTail);
+        }
+
+        // the tail is full: it becomes a leaf of the trie, growing a level when the root is full too
+        Object[] newRoot;
+        int newShift = shift;
+        if ((size >>> BITS) > (1 << shift)) {
+            newRoot = new Object[WIDTH];
+            newRoot[0] = root;
+            newRoot[1] = newPath(shift, tail);
+            newShift += BITS;
+        } else {
+            newRoot = pushTail(shift, root, tail);
+        }
+        return new PersistentVector<>(size + 1, newShift, newRoot, new Object[] { element });
+    }
+
+    PersistentVector<E> appendAll(Iterable<? extends E> elements) {
+        PersistentVector<E> vector = this;
+        for (E element : elements) vector = vector.append(element);
+        return vector;
+    }
+
+    private Object[] pushTail(int level, Object[] parent, Object[] leaf) {
+        int subIndex = ((size - 1) >>> level) & MASK;
+        Object[] result = parent.clone();
+        if (level == BITS) {
+            result[subIndex] = leaf;
+        } else {
+            Object[] child = (Object[]) parent[subIndex];
+            result[subIndex] = (child != null) ? pushTail(level - BITS, child, leaf) : newPath(level - BITS, leaf);
+        }
+        return result;
+    }
+
+    private static Object[] newPath(int level, Object[] leaf) {
+        if (level == 0) return leaf;
+        Object[] path = new Object[WIDTH];
+        path[0] = newPath(level - BITS, leaf);
+        return path;
+    }
+
+    // the first n elements, sharing every leaf before the one element n - 1 is in
+    PersistentVector<E> take(int n) {
+        Objects.checkFromToIndex(0, n, size);
+        if (n == size) return this;
+        if (n == 0) return empty();
+        if (n > tailOffset()) return new PersistentVector<>(n, shift, root, Arrays.copyOf(tail, n - tailOffset()));
+
+        Object[] newTail = Arrays.copyOf(leafFor(n - 1), ((n - 1) & MASK) + 1);
+        int trieSize = ((n - 1) >>> BITS) << BITS;
+        if (trieSize == 0) return new PersistentVector<>(n, BITS, EMPTY_NODE, newTail);
+
+        Object[] newRoot = trim(shift, root, trieSize - 1);
+        int newShift = shift;
+        while (newShift > BITS && newRoot[1] == null) {
+            newRoot = (Object[]) newRoot[0];
+            newShift -= BITS;
+        }
+        return new PersistentVector<>(n, newShift, newRoot, newTail);
+    }
+
+    // copy of the path down to lastIndex, dropping every child after it
+    private static Object[] trim(int level, Object[] node, int lastIndex) {
+        int subIndex = (lastIndex >>> level) & MASK;
+        Object[] result = new Object[WIDTH];
+        System.arraycopy(node, 0, result, 0, subIndex + 1);
+        if (level > BITS) result[subIndex] = trim(level - BITS, (Object[]) node[subIndex], lastIndex);
+        return result;
+    }
+
+    // only the elements after the removed one are appended again
+    PersistentVector<E> without(int index) {
+        Objects.checkIndex(index, size);
+        return take(index).appendAll(subList(index + 1, size));
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            private int index = 0;
+            private Object[] leaf;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public E next() {
+                if (index >= size) throw new NoSuchElementException();
+                if (leaf == null || (index & MASK) == 0) leaf = leafFor(index);
+                return (E) leaf[index++ & MASK];
+            }
+        };
+    }
+}
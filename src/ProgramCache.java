@@ -0,0 +1,477 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Programs already seen, by the SHA-256 of their text, so that running the same
+ * text again skips lexing and parsing. In memory a program is kept ready to run:
+ * its tree as the Optimizer left it and the code each engine compiled from it;
+ * the least recently run is dropped once CAPACITY are held. On disk, when a
+ * directory is set, the tree is kept as the parser gave it, in TreeCodec's form,
+ * so a new process only has to optimize and resolve it. Disk keys also hash the
+ * classes that decide that tree, so one written by a different build is never
+ * read back; a file that cannot be read is treated as absent.
+ */
+class ProgramCache
+{
+    static final int CAPACITY = 64;
+    static final int DISK_CAPACITY = 512;
+    private static final String SUFFIX = ".flexast";
+
+    // a program ready to run; the tree is resolved again before each run, which gives
+    // it fresh memo tables and frame pools and clears the call sites' inline caches and
+    // the values its invariants kept
+    static class Entry
+    {
+        final Node root;
+        final Map<String, CompiledCode> compiled = new HashMap<>(); // by engine
+
+        Entry(Node root) {
+            this.root = root;
+        }
+    }
+
+    long memoryHits = 0, diskHits = 0, misses = 0;
+
+    private final Map<String, Entry> programs = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+    private Path directory; // null keeps programs in memory only
+    private static String buildHash;
+
+    void setDirectory(Path directory) {
+        this.directory = directory;
+    }
+
+    static String key(String text) {
+        return HexFormat.of().formatHex(sha256().digest(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    Entry get(String key) {
+        Entry entry = programs.get(key);
+        if (entry != null) memoryHits++;
+        return entry;
+    }
+
+    Entry put(String key, Node root) {
+        Entry entry = new Entry(root);
+        programs.put(key, entry);
+        return entry;
+    }
+
+    // the parse tree stored for key, the hash of text, or null
+    Node load(String key, String fn, String text) {
+        Path file = file(key);
+        if (file == null || !Files.exists(file)) {
+            misses++;
+            return null;
+        }
+        try {
+            Node root = new TreeCodec(fn, text).read(ByteBuffer.wrap(Files.readAllBytes(file)));
+            diskHits++;
+            return root;
+        } catch (IOException | RuntimeException e) {
+            // written by an incompatible build, or cut short
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+            }
+            misses++;
+            return null;
+        }
+    }
+
+    // keeps a fresh parse tree, before anything rewrites it; failing to write only costs the next parse
+    void store(String key, Node root) {
+        Path file = file(key);
+        if (file == null) return;
+        try {
+            Files.createDirectories(directory);
+            Path partial = Files.createTempFile(directory, key, ".tmp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(partial)))) {
+                    new TreeCodec(null, null).write(root, out);
+                }
+                Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(partial);
+            }
+            evictFiles();
+        } catch (IOException e) {
+            // the directory is not writable
+        }
+    }
+
+    private Path file(String key) {
+        if (directory == null) return null;
+        String build = buildHash();
+        return (build == null) ? null : directory.resolve(key + "-" + build + SUFFIX);
+    }
+
+    // drops the oldest files once more than DISK_CAPACITY are kept
+    private void evictFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : stream) files.add(file);
+        }
+        if (files.size() <= DISK_CAPACITY) return;
+        Map<Path, Long> modified = new HashMap<>();
+        for (Path file : files) modified.put(file, Files.getLastModifiedTime(file).toMillis());
+        files.sort((a, b) -> Long.compare(modified.get(a), modified.get(b)));
+        for (Path file : files.subList(0, files.size() - DISK_CAPACITY)) Files.deleteIfExists(file);
+    }
+
+    // the classes that decide the tree a text parses to: the lexer's, the parser's and the nodes'
+    private static final String[] TREE_CLASSES = {
+        "Tokens", "Position", "TokenKind", "Token", "LineTable", "TokenBuffer", "Tokenizer", "TokenWindow",
+        "ParseResult", "ConstantPool", "TokenSource", "Parser", "IncrementalParser", "TreeCodec",
+        "Node", "NumberNode", "UnaryOpNode", "BinOpNode", "StringNode", "ListNode", "VarAssignNode", "VarAccessNode",
+        "IfNode", "ForNode", "WhileNode", "FuncDefNode", "CallNode", "InvariantNode", "ReturnNode", "ContinueNode",
+        "BreakNode", "ConditionTuple"
+    };
+
+    // hash of TREE_CLASSES; null when they cannot be read, which keeps the disk unused
+    private static synchronized String buildHash() {
+        if (buildHash != null) return buildHash.isEmpty() ? null : buildHash;
+        MessageDigest digest = sha256();
+        for (String name : TREE_CLASSES) {
+            try (InputStream in = ProgramCache.class.getResourceAsStream("/" + name + ".class")) {
+                if (in == null) {
+                    buildHash = "";
+                    return null;
+                }
+                digest.update(in.readAllBytes());
+            } catch (IOException e) {
+                buildHash = "";
+                return null;
+            }
+        }
+        buildHash = HexFormat.of().formatHex(digest.digest(), 0, 8);
+        return buildHash;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return memoryHits + " memory hits, " + diskHits + " disk hits, " + misses + " misses, " + programs.size() + " kept";
+    }
+}
+
+/*
+ * A parse tree as a compact stream: each node is a tag followed by its tokens and
+ * children, a position is its index, line and column, as every position of one
+ * program shares its file name and text, and a string after its first use is
+ * the index it was given then. Nodes are rebuilt through the same
+ * constructors the Parser calls, so reading gives the tree parsing would.
+ */
+class TreeCodec
+{
+    private static final int MAGIC = 0x464c5854; // "FLXT"
+
+    private static final int NULL = 0, NUMBER = 1, STRING = 2, VAR_ACCESS = 3, VAR_ASSIGN = 4, UNARY_OP = 5,
+        BIN_OP = 6, LIST = 7, IF = 8, FOR = 9, WHILE = 10, FUNC_DEF = 11, CALL = 12, RETURN = 13,
+        CONTINUE = 14, BREAK = 15;
+    private static final int NO_VALUE = 0, LONG_VALUE = 1, DOUBLE_VALUE = 2, STRING_VALUE = 3;
+
+    private final String fn, text;
+    private final ConstantPool constants = new ConstantPool();
+    // each distinct string is written once, then referred to by its index
+    private final Map<String, Integer> written = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+
+    TreeCodec(String fn, String text) {
+        this.fn = fn;
+        this.text = text;
+    }
+
+    void write(Node root, DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        writeNode(root, out);
+    }
+
+    Node read(ByteBuffer in) throws IOException {
+        if (in.getInt() != MAGIC) throw new IOException("not a FLEX parse tree");
+        Node root = readNode(in);
+        if (in.hasRemaining()) throw new IOException("trailing bytes after parse tree");
+        return root;
+    }
+
+    private void writeNode(Node node, DataOutputStream out) throws IOException {
+        if (node == null) {
+            out.writeByte(NULL);
+        } else if (node instanceof NumberNode numberNode) {
+            out.writeByte(NUMBER);
+            writeToken(numberNode.tok, out);
+        } else if (node instanceof StringNode stringNode) {
+            out.writeByte(STRING);
+            writeToken(stringNode.tok, out);
+        } else if (node instanceof VarAccessNode varAccessNode) {
+            out.writeByte(VAR_ACCESS);
+            writeToken(varAccessNode.varNameTok, out);
+        } else if (node instanceof VarAssignNode varAssignNode) {
+            out.writeByte(VAR_ASSIGN);
+            writeToken(varAssignNode.varNameTok, out);
+            writeNode(varAssignNode.valueNode, out);
+        } else if (node instanceof UnaryOpNode unaryOpNode) {
+            out.writeByte(UNARY_OP);
+            writeToken(unaryOpNode.opTok, out);
+            writeNode(unaryOpNode.node, out);
+        } else if (node instanceof BinOpNode binOpNode) {
+            out.writeByte(BIN_OP);
+            writeNode(binOpNode.left, out);
+            writeToken(binOpNode.opTok, out);
+            writeNode(binOpNode.right, out);
+        } else if (node instanceof ListNode listNode) {
+            out.writeByte(LIST);
+            writeNodes(listNode.elementNodes, out);
+            writePosition(listNode.pos_start, out);
+            writePosition(listNode.pos_end, out);
+            out.writeBoolean(listNode.discardsValue);
+        } else if (node instanceof IfNode ifNode) {
+            out.writeByte(IF);
+            out.writeInt(ifNode.cases.size());
+            for (ConditionTuple ifCase : ifNode.cases) {
+                writeNode(ifCase.condition, out);
+                writeNode(ifCase.statementsOrExpression, out);
+                out.writeBoolean(ifCase.isStatementBlock);
+            }
+            out.writeBoolean(ifNode.elseCase != null);
+            if (ifNode.elseCase != null) {
+                writeNode(ifNode.elseCase.statementsOrExpression, out);
+                out.writeBoolean(ifNode.elseCase.isStatementBlock);
+            }
+        } else if (node instanceof ForNode forNode) {
+            out.writeByte(FOR);
+            writeToken(forNode.varNameTok, out);
+            writeNode(forNode.startValueNode, out);
+            writeNode(forNode.endValueNode, out);
+            writeNode(forNode.stepValueNode, out);
+            writeNode(forNode.bodyNode, out);
+            out.writeBoolean(forNode.shouldReturnNull);
+        } else if (node instanceof WhileNode whileNode) {
+            out.writeByte(WHILE);
+            writeNode(whileNode.conditionNode, out);
+            writeNode(whileNode.bodyNode, out);
+            out.writeBoolean(whileNode.shouldReturnNull);
+        } else if (node instanceof FuncDefNode funcDefNode) {
+            out.writeByte(FUNC_DEF);
+            writeToken(funcDefNode.varNameTok, out);
+            out.writeInt(funcDefNode.argNameToks.size());
+            for (Token argNameTok : funcDefNode.argNameToks) writeToken(argNameTok, out);
+            writeNode(funcDefNode.bodyNode, out);
+            out.writeBoolean(funcDefNode.shouldAutoReturn);
+            out.writeBoolean(funcDefNode.memoize);
+        } else if (node instanceof CallNode callNode) {
+            out.writeByte(CALL);
+            writeNode(callNode.nodeToCall, out);
+            writeNodes(callNode.argNodes, out);
+        } else if (node instanceof ReturnNode returnNode) {
+            out.writeByte(RETURN);
+            writeNode(returnNode.returnNode, out);
+            writePosition(returnNode.pos_start, out);
+            writePosition(returnNode.pos_end, out);
+        } else if (node instanceof ContinueNode || node instanceof BreakNode) {
+            out.writeByte(node instanceof ContinueNode ? CONTINUE : BREAK);
+            writePosition(node.pos_start, out);
+            writePosition(node.pos_end, out);
+        } else {
+            throw new IllegalArgumentException("no tree code for " + node.getClass().getSimpleName() + " defined.");
+        }
+    }
+
+    private Node readNode(ByteBuffer in) throws IOException {
+        int tag = in.get();
+        switch (tag) {
+            case NULL: return null;
+            case NUMBER: {
+                Token tok = readToken(in);
+                return new NumberNode(tok, constants.number(tok));
+            }
+            case STRING: return new StringNode(readToken(in));
+            case VAR_ACCESS: return new VarAccessNode(readToken(in));
+            case VAR_ASSIGN: {
+                Token varNameTok = readToken(in);
+                return new VarAssignNode(varNameTok, readNode(in));
+            }
+            case UNARY_OP: {
+                Token opTok = readToken(in);
+                return new UnaryOpNode(opTok, readNode(in));
+            }
+            case BIN_OP: {
+                Node left = readNode(in);
+                Token opTok = readToken(in);
+                return new BinOpNode(left, opTok, readNode(in));
+            }
+            case LIST: {
+                List<Node> elementNodes = readNodes(in);
+                ListNode listNode = new ListNode(elementNodes, readPosition(in), readPosition(in));
+                listNode.discardsValue = (in.get() != 0);
+                return listNode;
+            }
+            case IF: {
+                int caseCount = in.getInt();
+                List<ConditionTuple> cases = new ArrayList<>(caseCount);
+                for (int i = 0; i < caseCount; i++) {
+                    Node condition = readNode(in);
+                    Node statementsOrExpression = readNode(in);
+                    cases.add(new ConditionTuple(condition, statementsOrExpression, (in.get() != 0)));
+                }
+                ConditionTuple elseCase = null;
+                if ((in.get() != 0)) {
+                    Node statementsOrExpression = readNode(in);
+                    elseCase = new ConditionTuple(null, statementsOrExpression, (in.get() != 0));
+                }
+                return new IfNode(cases, elseCase);
+            }
+            case FOR: {
+                Token varNameTok = readToken(in);
+                Node startValueNode = readNode(in), endValueNode = readNode(in), stepValueNode = readNode(in);
+                Node bodyNode = readNode(in);
+                return new ForNode(varNameTok, startValueNode, endValueNode, stepValueNode, bodyNode, (in.get() != 0));
+            }
+            case WHILE: {
+                Node conditionNode = readNode(in), bodyNode = readNode(in);
+                return new WhileNode(conditionNode, bodyNode, (in.get() != 0));
+            }
+            case FUNC_DEF: {
+                Token varNameTok = readToken(in);
+                int argCount = in.getInt();
+                List<Token> argNameToks = new ArrayList<>(argCount);
+                for (int i = 0; i < argCount; i++) argNameToks.add(readToken(in));
+                Node bodyNode = readNode(in);
+                FuncDefNode funcDefNode = new FuncDefNode(varNameTok, argNameToks, bodyNode, (in.get() != 0));
+                funcDefNode.memoize = (in.get() != 0);
+                return funcDefNode;
+            }
+            case CALL: {
+                Node nodeToCall = readNode(in);
+                return new CallNode(nodeToCall, readNodes(in));
+            }
+            case RETURN: {
+                Node returnNode = readNode(in);
+                return new ReturnNode(returnNode, readPosition(in), readPosition(in));
+            }
+            case CONTINUE: return new ContinueNode(readPosition(in), readPosition(in));
+            case BREAK: return new BreakNode(readPosition(in), readPosition(in));
+            default: throw new IOException("bad node tag " + tag);
+        }
+    }
+
+    private void writeNodes(List<Node> nodes, DataOutputStream out) throws IOException {
+        out.writeInt(nodes.size());
+        for (Node node : nodes) writeNode(node, out);
+    }
+
+    private List<Node> readNodes(ByteBuffer in) throws IOException {
+        int count = in.getInt();
+        List<Node> nodes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) nodes.add(readNode(in));
+        return nodes;
+    }
+
+    // a null token is written as a null type
+    private void writeToken(Token tok, DataOutputStream out) throws IOException {
+        out.writeBoolean(tok != null);
+        if (tok == null) return;
+        writeString(tok.type, out);
+        if (tok.value instanceof Long number) {
+            out.writeByte(LONG_VALUE);
+            out.writeLong(number);
+        } else if (tok.value instanceof Double number) {
+            out.writeByte(DOUBLE_VALUE);
+            out.writeDouble(number);
+        } else if (tok.value instanceof String string) {
+            out.writeByte(STRING_VALUE);
+            writeString(string, out);
+        } else if (tok.value == null) {
+            out.writeByte(NO_VALUE);
+        } else {
+            throw new IllegalArgumentException("no tree code for token value " + tok.value.getClass().getSimpleName() + " defined.");
+        }
+        writePosition(tok.pos_start, out);
+        writePosition(tok.pos_end, out);
+    }
+
+    private Token readToken(ByteBuffer in) throws IOException {
+        if (!(in.get() != 0)) return null;
+        String type = readString(in);
+        Object value;
+        int kind = in.get();
+        switch (kind) {
+            case NO_VALUE -> value = null;
+            case LONG_VALUE -> value = in.getLong();
+            case DOUBLE_VALUE -> value = in.getDouble();
+            case STRING_VALUE -> value = readString(in);
+            default -> throw new IOException("bad token value kind " + kind);
+        }
+        Token tok = new Token(type, value, null, null);
+        tok.pos_start = readPosition(in);
+        tok.pos_end = readPosition(in);
+        return tok;
+    }
+
+    private void writeString(String string, DataOutputStream out) throws IOException {
+        Integer index = written.get(string);
+        if (index != null) {
+            out.writeInt(index);
+            return;
+        }
+        out.writeInt(written.size());
+        written.put(string, written.size());
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private String readString(ByteBuffer in) throws IOException {
+        int index = in.getInt();
+        if (index < strings.size()) return strings.get(index);
+        if (index != strings.size()) throw new IOException("bad string index " + index);
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        String string = new String(bytes, StandardCharsets.UTF_8);
+        strings.add(string);
+        return string;
+    }
+
+    private void writePosition(Position pos, DataOutputStream out) throws IOException {
+        if (pos == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(pos.idx);
+        out.writeInt(pos.ln);
+        out.writeInt(pos.col);
+    }
+
+    private Position readPosition(ByteBuffer in) throws IOException {
+        int idx = in.getInt();
+        if (idx < 0) return null;
+        return new Position(idx, in.getInt(), in.getInt(), fn, text);
+    }
+}
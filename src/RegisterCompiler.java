@@ -0,0 +1,666 @@
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * A FLEX program as register code: a flat int[] of instructions, each an opcode
+ * followed by its operands, and a pool of the constants they refer to (literal
+ * values, the nodes whose positions and names an instruction needs, and the code
+ * of task bodies and of given expressions). execute() runs it in one dispatch
+ * loop over an array of registers, so evaluating an expression or a loop never
+ * recurses on the Java stack; only a task call does, through Function.call,
+ * which keeps the depth limit, tail calls and memo tables every engine shares,
+ * and a give, whose expression is code of its own so that an error in it can be
+ * dropped. Each instruction leaves
+ * exactly what the matching Interpreter.visit_* method would.
+ */
+class RegisterProgram implements CompiledCode
+{
+    // r: register, k: constant, t: jump target, n: count, c: first of a for loop's counter registers
+    static final int CONST = 0;        // r k     r = literal value k
+    static final int STRING = 1;       // r k     r = string of node k
+    static final int LOAD = 2;         // r k     r = variable of node k
+    static final int STORE = 3;        // r k     variable of assignment k = r
+    static final int MOVE = 4;         // r r
+    static final int NEG = 5;          // r r
+    static final int NOT = 6;          // r r
+    static final int ADD = 7;          // r r r k   r = r op r, positioned at node k
+    static final int SUB = 8;
+    static final int MUL = 9;
+    static final int DIV = 10;
+    static final int POW = 11;
+    static final int EQ = 12;
+    static final int NE = 13;
+    static final int LT = 14;
+    static final int GT = 15;
+    static final int LTE = 16;
+    static final int GTE = 17;
+    static final int AND = 18;
+    static final int OR = 19;
+    static final int NEWLIST = 20;     // r       r = empty element list
+    static final int APPEND = 21;      // r r
+    static final int MAKELIST = 22;    // r k     r = list of r's elements, positioned at node k
+    static final int JUMP = 23;        // t
+    static final int JUMP_FALSE = 24;  // r t
+    static final int FOR_INIT = 25;    // c r r   counter from start r up to end r
+    static final int FOR_TEST = 26;    // c k t   leave for t once done, else store the counter of loop k
+    static final int FOR_NEXT = 27;    // c t
+    static final int CACHED = 28;      // r k t   r, r+1 = task in call k's inline cache, and skip to t
+    static final int CALLEE = 29;      // r k     r+1 = r when call k's inline cache holds it
+    static final int CALL = 30;        // r r r n k t t   r = callee r on n arguments from r;
+                                       //                 a stop or proceed it passes up goes to the targets
+    static final int FUNCDEF = 31;     // r k k   r = task of node k running code k
+    static final int INVARIANT = 32;   // r k t   r = the kept value of node k, and skip to t
+    static final int REMEMBER = 33;    // r k
+    static final int FUSED = 34;       // r k t   r = what fused node k gives, and skip to t
+    static final int GIVE = 35;        // r k     give what code k leaves, or r = nothing if it fails
+    static final int RETURN = 36;      // r
+    static final int RETURN_NULL = 37;
+    static final int BREAK = 38;       // stop and proceed outside any loop of this code
+    static final int CONTINUE = 39;
+    static final int END = 40;         // r
+
+    static final String[] NAMES = {
+        "CONST", "STRING", "LOAD", "STORE", "MOVE", "NEG", "NOT",
+        "ADD", "SUB", "MUL", "DIV", "POW", "EQ", "NE", "LT", "GT", "LTE", "GTE", "AND", "OR",
+        "NEWLIST", "APPEND", "MAKELIST", "JUMP", "JUMP_FALSE", "FOR_INIT", "FOR_TEST", "FOR_NEXT",
+        "CACHED", "CALLEE", "CALL", "FUNCDEF", "INVARIANT", "REMEMBER", "FUSED",
+        "GIVE", "RETURN", "RETURN_NULL", "BREAK", "CONTINUE", "END",
+    };
+    static final String[] OPERANDS = {
+        "rk", "rk", "rk", "rk", "rr", "rr", "rr",
+        "rrrk", "rrrk", "rrrk", "rrrk", "rrrk", "rrrk", "rrrk", "rrrk", "rrrk", "rrrk", "rrrk", "rrrk", "rrrk",
+        "r", "rr", "rk", "t", "rt", "crr", "ckt", "ct",
+        "rkt", "rk", "rrrnktt", "rkk", "rkt", "rk", "rkt",
+        "rk", "r", "", "", "", "r",
+    };
+
+    final String name;
+    final int[] code;
+    final Object[] constants;
+    final int registerCount;
+    final boolean counts; // has a for loop, so needs the counter registers
+
+    RegisterProgram(String name, int[] code, Object[] constants, int registerCount, boolean counts)
+    {
+        this.name = name;
+        this.code = code;
+        this.constants = constants;
+        this.registerCount = registerCount;
+        this.counts = counts;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public RTResult execute(Context context)
+    {
+        final int[] code = this.code;
+        final Object[] k = this.constants;
+        final Object[] regs = new Object[registerCount];
+        // a for loop's counter c is reals[c] and ints[c], its end reals[c + 1], and whether it counts integers ints[c + 1]
+        final double[] reals = counts ? new double[registerCount] : null;
+        final long[] ints = counts ? new long[registerCount] : null;
+        final RTResult res = context.result;
+        int pc = 0;
+
+        while (true)
+        {
+            int op = code[pc];
+            switch (op)
+            {
+                case CONST:
+                    regs[code[pc + 1]] = k[code[pc + 2]];
+                    pc += 3;
+                    break;
+                case STRING:
+                    regs[code[pc + 1]] = ClosureCompiler.INTERPRETER.visit_StringNode((StringNode) k[code[pc + 2]], context).value;
+                    pc += 3;
+                    break;
+                case LOAD: {
+                    RTResult r = ClosureCompiler.INTERPRETER.visit_VarAccessNode((VarAccessNode) k[code[pc + 2]], context);
+                    if (r.err != null) return r;
+                    regs[code[pc + 1]] = r.value;
+                    pc += 3;
+                    break;
+                }
+                case STORE: {
+                    VarAssignNode node = (VarAssignNode) k[code[pc + 2]];
+                    context.symbolTable.set(node.slot, node.varNameTok.value.toString(), (Value) regs[code[pc + 1]]);
+                    pc += 3;
+                    break;
+                }
+                case MOVE:
+                    regs[code[pc + 1]] = regs[code[pc + 2]];
+                    pc += 3;
+                    break;
+                case NEG:
+                case NOT: {
+                    Value operand = (Value) regs[code[pc + 2]];
+                    RTResult r = (op == NEG) ? operand.multedBy(IntegerValue.MINUS_ONE, res) : operand.notted(res);
+                    if (r.err != null) return r.inContext(context);
+                    regs[code[pc + 1]] = r.value;
+                    pc += 3;
+                    break;
+                }
+                case ADD: case SUB: case MUL: case DIV: case POW:
+                case EQ: case NE: case LT: case GT: case LTE: case GTE: case AND: case OR: {
+                    Value left = (Value) regs[code[pc + 2]], right = (Value) regs[code[pc + 3]];
+                    RTResult r = switch (op) {
+                        case ADD -> left.addedTo(right, res);
+                        case SUB -> left.subbedBy(right, res);
+                        case MUL -> left.multedBy(right, res);
+                        case DIV -> left.divedBy(right, res);
+                        case POW -> left.powedBy(right, res);
+                        case EQ -> left.getComparisonEq(right, res);
+                        case NE -> left.getComparisonNe(right, res);
+                        case LT -> left.getComparisonLt(right, res);
+                        case GT -> left.getComparisonGt(right, res);
+                        case LTE -> left.getComparisonLte(right, res);
+                        case GTE -> left.getComparisonGte(right, res);
+                        case AND -> left.andedBy(right, res);
+                        default -> left.oredBy(right, res);
+                    };
+                    if (r.err != null) return r.inContext(context);
+                    Node node = (Node) k[code[pc + 4]];
+                    regs[code[pc + 1]] = r.value.setPos(node.pos_start, node.pos_end);
+                    pc += 5;
+                    break;
+                }
+                case NEWLIST:
+                    regs[code[pc + 1]] = new ArrayList<Value>();
+                    pc += 2;
+                    break;
+                case APPEND:
+                    ((List<Value>) regs[code[pc + 1]]).add((Value) regs[code[pc + 2]]);
+                    pc += 3;
+                    break;
+                case MAKELIST: {
+                    Node node = (Node) k[code[pc + 2]];
+                    int r = code[pc + 1];
+                    regs[r] = new ListValue((List<Value>) regs[r]).setContext(context).setPos(node.pos_start, node.pos_end);
+                    pc += 3;
+                    break;
+                }
+                case JUMP:
+                    pc = code[pc + 1];
+                    break;
+                case JUMP_FALSE:
+                    pc = ((Value) regs[code[pc + 1]]).isTrue() ? pc + 3 : code[pc + 2];
+                    break;
+                case FOR_INIT: {
+                    int c = code[pc + 1];
+                    NumberValue start = (NumberValue) regs[code[pc + 2]];
+                    boolean integral = start instanceof IntegerValue;
+                    reals[c] = start.value;
+                    ints[c] = integral ? ((IntegerValue) start).intValue : 0;
+                    reals[c + 1] = ((NumberValue) regs[code[pc + 3]]).value;
+                    ints[c + 1] = integral ? 1 : 0;
+                    pc += 4;
+                    break;
+                }
+                case FOR_TEST: {
+                    int c = code[pc + 1];
+                    if (!(reals[c] < reals[c + 1])) {
+                        pc = code[pc + 3];
+                        break;
+                    }
+                    // stored every time: the value left once the loop stops is the same as
+                    // storeCounter gives for a counter the body does not read
+                    ForNode node = (ForNode) k[code[pc + 2]];
+                    context.symbolTable.set(node.slot, node.varNameTok.value.toString(),
+                        ints[c + 1] != 0 ? IntegerValue.valueOf(ints[c]) : new NumberValue(reals[c]));
+                    pc += 4;
+                    break;
+                }
+                case FOR_NEXT: {
+                    int c = code[pc + 1];
+                    reals[c] += 1;
+                    ints[c] += 1;
+                    pc = code[pc + 2];
+                    break;
+                }
+                case CACHED: {
+                    Function cached = ((CallNode) k[code[pc + 2]]).cachedVariable(context);
+                    int r = code[pc + 1];
+                    regs[r + 1] = cached;
+                    if (cached == null) {
+                        pc += 4;
+                        break;
+                    }
+                    regs[r] = cached;
+                    pc = code[pc + 3];
+                    break;
+                }
+                case CALLEE: {
+                    int r = code[pc + 1];
+                    regs[r + 1] = ((CallNode) k[code[pc + 2]]).cachedTask((Value) regs[r]);
+                    pc += 3;
+                    break;
+                }
+                case CALL: {
+                    CallNode node = (CallNode) k[code[pc + 5]];
+                    Value callee = (Value) regs[code[pc + 2]];
+                    Function cached = (Function) regs[code[pc + 2] + 1];
+                    Value valueToCall = (cached != null) ? callee : callee.copy().setPos(node.pos_start, node.pos_end);
+
+                    int first = code[pc + 3], argCount = code[pc + 4];
+                    List<Value> args = new ArrayList<>(argCount);
+                    for (int i = 0; i < argCount; i++) args.add((Value) regs[first + i]);
+
+                    if (node.tail && valueToCall instanceof Function function) return res.successTailCall(function, args);
+
+                    RTResult r = (cached != null) ? cached.invoke(args, node.callerOf(callee, context), node) : node.cacheTask(valueToCall, args).execute(args);
+                    r = r.inContext(context);
+                    if (r.shouldReturn()) {
+                        // a stop or proceed the task left unhandled acts here, as the tree engines pass it up
+                        int target = (r.err != null || r.tailCallee != null || r.funcReturnValue != null) ? -1
+                                   : r.loop_should_break ? code[pc + 7] : code[pc + 6];
+                        if (target < 0) {
+                            res.register(r);
+                            return res;
+                        }
+                        pc = target;
+                        break;
+                    }
+                    regs[code[pc + 1]] = r.value.copy().setPos(node.pos_start, node.pos_end).setContext(context);
+                    pc += 8;
+                    break;
+                }
+                case FUNCDEF: {
+                    RTResult r = ClosureCompiler.INTERPRETER.visit_FuncDefNode((FuncDefNode) k[code[pc + 2]], context);
+                    if (r.err != null) return r;
+                    ((Function) r.value).compiledBody = (RegisterProgram) k[code[pc + 3]];
+                    regs[code[pc + 1]] = r.value;
+                    pc += 4;
+                    break;
+                }
+                case INVARIANT: {
+                    RTResult known = ((InvariantNode) k[code[pc + 2]]).reuse(context);
+                    if (known == null) {
+                        pc += 4;
+                        break;
+                    }
+                    regs[code[pc + 1]] = known.value;
+                    pc = code[pc + 3];
+                    break;
+                }
+                case REMEMBER: {
+                    int r = code[pc + 1];
+                    regs[r] = ((InvariantNode) k[code[pc + 2]]).remember(res.success((Value) regs[r]), context).value;
+                    pc += 3;
+                    break;
+                }
+                case FUSED: {
+                    RTResult r = ((FusedNode) k[code[pc + 2]]).execute(context);
+                    if (r == null) {
+                        pc += 4;
+                        break;
+                    }
+                    regs[code[pc + 1]] = r.value;
+                    pc = code[pc + 3];
+                    break;
+                }
+                case GIVE: {
+                    // the expression runs as code of its own, so an error it raises ends only that
+                    RTResult r = ((RegisterProgram) k[code[pc + 2]]).execute(context);
+                    r = r.give(r.value);
+                    if (r.shouldReturn()) return r;
+                    regs[code[pc + 1]] = null;
+                    pc += 3;
+                    break;
+                }
+                case RETURN:
+                    return res.successReturn((Value) regs[code[pc + 1]]);
+                case RETURN_NULL:
+                    return res.successReturn(NumberValue.NULL);
+                case BREAK:
+                    return res.successBreak();
+                case CONTINUE:
+                    return res.successContinue();
+                case END:
+                    return res.success((Value) regs[code[pc + 1]]);
+                default:
+                    throw new IllegalStateException("bad register code " + op + " at " + pc);
+            }
+        }
+    }
+
+    // one instruction per line, followed by the code of each task defined here
+    public String disassemble()
+    {
+        StringBuilder out = new StringBuilder();
+        out.append("code ").append(name).append(" (").append(registerCount).append(" registers)\n");
+        List<RegisterProgram> tasks = new ArrayList<>();
+        for (int pc = 0; pc < code.length; pc += 1 + OPERANDS[code[pc]].length())
+        {
+            String operands = OPERANDS[code[pc]];
+            out.append(String.format("%5d  %-11s", pc, NAMES[code[pc]]));
+            StringBuilder comment = new StringBuilder();
+            for (int i = 0; i < operands.length(); i++)
+            {
+                int operand = code[pc + 1 + i];
+                out.append(i == 0 ? "" : ", ");
+                switch (operands.charAt(i))
+                {
+                    case 'r' -> out.append('r').append(operand);
+                    case 'c' -> out.append('c').append(operand);
+                    case 'k' -> {
+                        out.append('k').append(operand);
+                        comment.append(comment.length() == 0 ? "  ; " : ", ").append(describe(constants[operand]));
+                        if (constants[operand] instanceof RegisterProgram task) tasks.add(task);
+                    }
+                    case 't' -> out.append(operand < 0 ? "-" : "@" + operand);
+                    default -> out.append(operand);
+                }
+            }
+            out.append(comment).append('\n');
+        }
+        for (RegisterProgram task : tasks) out.append('\n').append(task.disassemble());
+        return out.toString();
+    }
+
+    private static String describe(Object constant)
+    {
+        if (constant instanceof RegisterProgram task) return "code " + task.name;
+        if (constant instanceof Value value) return value.toString();
+        if (constant instanceof VarAccessNode node) return node.varNameTok.value.toString();
+        if (constant instanceof VarAssignNode node) return node.varNameTok.value.toString();
+        if (constant instanceof ForNode node) return node.varNameTok.value.toString();
+        if (constant instanceof StringNode node) return "\"" + node.tok.value + "\"";
+        if (constant instanceof FuncDefNode node) return "task " + (node.varNameTok != null ? node.varNameTok.value : "<anonymous>");
+        if (constant instanceof BinOpNode node) return node.opTok.type;
+        return constant.getClass().getSimpleName();
+    }
+}
+
+/*
+ * Translates a FLEX AST into RegisterPrograms, one for the program and one for
+ * each task body. Every node leaves its value in the register it is given;
+ * temporaries are taken above it and given back once the node is done, so the
+ * register file is as deep as the most deeply nested expression. Loops become
+ * jumps, and a stop or proceed inside one jumps to its end or its test.
+ */
+class RegisterCompiler
+{
+    private final String name;
+    private final List<Integer> code = new ArrayList<>();
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new IdentityHashMap<>();
+    private int top = 0; // first free register
+    private int registerCount = 1;
+    private boolean counts = false;
+
+    // where a proceed goes, and the jumps of each stop to point at the end of the loop they are
+    // in; -1 and null outside any loop of this code, where they leave it
+    private int continueTarget = -1;
+    private List<Integer> breakJumps = null;
+
+    private RegisterCompiler(String name)
+    {
+        this.name = name;
+    }
+
+    public static RegisterProgram compile(Node root)
+    {
+        return new RegisterCompiler("<program>").build(root);
+    }
+
+    private RegisterProgram build(Node root)
+    {
+        int result = allocate();
+        emit(root, result);
+        op(RegisterProgram.END, result);
+
+        int[] words = new int[code.size()];
+        for (int i = 0; i < words.length; i++) words[i] = code.get(i);
+        return new RegisterProgram(name, words, constants.toArray(), registerCount, counts);
+    }
+
+    private int allocate()
+    {
+        registerCount = Math.max(registerCount, top + 1);
+        return top++;
+    }
+
+    private int constant(Object value)
+    {
+        Integer idx = constantIndex.get(value);
+        if (idx != null) return idx;
+        constants.add(value);
+        constantIndex.put(value, constants.size() - 1);
+        return constants.size() - 1;
+    }
+
+    private int op(int opcode, int... operands)
+    {
+        int at = code.size();
+        code.add(opcode);
+        for (int operand : operands) code.add(operand);
+        return at;
+    }
+
+    // points the jump target at operand index of the instruction at at to the next instruction
+    private void patch(int at, int index)
+    {
+        code.set(at + index, code.size());
+    }
+
+    private void emit(Node node, int dest)
+    {
+        if (node instanceof NumberNode numberNode) op(RegisterProgram.CONST, dest, constant(numberNode.constant));
+        else if (node instanceof StringNode stringNode) op(RegisterProgram.STRING, dest, constant(stringNode));
+        else if (node instanceof VarAccessNode varAccessNode) op(RegisterProgram.LOAD, dest, constant(varAccessNode));
+        else if (node instanceof VarAssignNode varAssignNode)
+        {
+            emit(varAssignNode.valueNode, dest);
+            op(RegisterProgram.STORE, dest, constant(varAssignNode));
+        }
+        else if (node instanceof UnaryOpNode unaryOpNode) emitUnaryOp(unaryOpNode, dest);
+        else if (node instanceof BinOpNode binOpNode) emitBinOp(binOpNode, dest);
+        else if (node instanceof ListNode listNode) emitList(listNode, dest);
+        else if (node instanceof IfNode ifNode) emitIf(ifNode, dest);
+        else if (node instanceof ForNode forNode) emitFor(forNode, dest);
+        else if (node instanceof WhileNode whileNode) emitWhile(whileNode, dest);
+        else if (node instanceof FuncDefNode funcDefNode)
+        {
+            String taskName = (funcDefNode.varNameTok != null) ? funcDefNode.varNameTok.value.toString() : "<anonymous>";
+            RegisterProgram body = new RegisterCompiler(taskName).build(funcDefNode.bodyNode);
+            op(RegisterProgram.FUNCDEF, dest, constant(funcDefNode), constant(body));
+        }
+        else if (node instanceof CallNode callNode) emitCall(callNode, dest);
+        else if (node instanceof ReturnNode returnNode)
+        {
+            if (returnNode.returnNode == null) op(RegisterProgram.RETURN_NULL);
+            else if (returnNode.returnNode instanceof NumberNode || returnNode.returnNode instanceof StringNode)
+            {
+                emit(returnNode.returnNode, dest);
+                op(RegisterProgram.RETURN, dest);
+            }
+            else op(RegisterProgram.GIVE, dest, constant(new RegisterCompiler(name + " give").build(returnNode.returnNode)));
+        }
+        else if (node instanceof BreakNode)
+        {
+            if (breakJumps == null) op(RegisterProgram.BREAK);
+            else breakJumps.add(op(RegisterProgram.JUMP, -1) + 1);
+        }
+        else if (node instanceof ContinueNode)
+        {
+            if (continueTarget < 0) op(RegisterProgram.CONTINUE);
+            else op(RegisterProgram.JUMP, continueTarget);
+        }
+        else if (node instanceof InvariantNode invariantNode)
+        {
+            int reuse = op(RegisterProgram.INVARIANT, dest, constant(invariantNode), -1);
+            emit(invariantNode.expr, dest);
+            op(RegisterProgram.REMEMBER, dest, constant(invariantNode));
+            patch(reuse, 3);
+        }
+        else if (node instanceof FusedNode fusedNode)
+        {
+            int fused = op(RegisterProgram.FUSED, dest, constant(fusedNode), -1);
+            emit(fusedNode.original, dest);
+            patch(fused, 3);
+        }
+        else throw new RuntimeException("no register code for " + node.getClass().getSimpleName() + " defined.");
+    }
+
+    private void emitUnaryOp(UnaryOpNode node, int dest)
+    {
+        emit(node.node, dest);
+        if (node.opTok.type.equals(Tokens.TT_MINUS)) op(RegisterProgram.NEG, dest, dest);
+        else if (node.opTok.matches(Tokens.TT_KEYWORD, "not")) op(RegisterProgram.NOT, dest, dest);
+    }
+
+    private static int binOpCode(Token opTok)
+    {
+        if (opTok.type.equals(Tokens.TT_PLUS)) return RegisterProgram.ADD;
+        if (opTok.type.equals(Tokens.TT_MINUS)) return RegisterProgram.SUB;
+        if (opTok.type.equals(Tokens.TT_MULT)) return RegisterProgram.MUL;
+        if (opTok.type.equals(Tokens.TT_DIV)) return RegisterProgram.DIV;
+        if (opTok.type.equals(Tokens.TT_POW)) return RegisterProgram.POW;
+        if (opTok.type.equals(Tokens.TT_EQ)) return RegisterProgram.EQ;
+        if (opTok.type.equals(Tokens.TT_NE)) return RegisterProgram.NE;
+        if (opTok.type.equals(Tokens.TT_LT)) return RegisterProgram.LT;
+        if (opTok.type.equals(Tokens.TT_GT)) return RegisterProgram.GT;
+        if (opTok.type.equals(Tokens.TT_LTE)) return RegisterProgram.LTE;
+        if (opTok.type.equals(Tokens.TT_GTE)) return RegisterProgram.GTE;
+        if (opTok.matches(Tokens.TT_KEYWORD, "and")) return RegisterProgram.AND;
+        if (opTok.matches(Tokens.TT_KEYWORD, "or")) return RegisterProgram.OR;
+        throw new RuntimeException("no register code for operator " + opTok.repr() + " defined.");
+    }
+
+    private void emitBinOp(BinOpNode node, int dest)
+    {
+        int opcode = binOpCode(node.opTok);
+        emit(node.left, dest);
+        int right = allocate();
+        emit(node.right, right);
+        op(opcode, dest, dest, right, constant(node));
+        top = right;
+    }
+
+    private void emitList(ListNode node, int dest)
+    {
+        if (node.discardsValue)
+        {
+            for (Node element : node.elementNodes) emit(element, dest);
+            op(RegisterProgram.CONST, dest, constant(NumberValue.NULL));
+            return;
+        }
+        op(RegisterProgram.NEWLIST, dest);
+        int element = allocate();
+        for (Node elementNode : node.elementNodes)
+        {
+            emit(elementNode, element);
+            op(RegisterProgram.APPEND, dest, element);
+        }
+        top = element;
+        op(RegisterProgram.MAKELIST, dest, constant(node));
+    }
+
+    private void emitIf(IfNode node, int dest)
+    {
+        List<Integer> exits = new ArrayList<>();
+        for (ConditionTuple ifCase : node.cases)
+        {
+            emit(ifCase.condition, dest);
+            int skip = op(RegisterProgram.JUMP_FALSE, dest, -1);
+            emitBranch(ifCase, dest);
+            exits.add(op(RegisterProgram.JUMP, -1));
+            patch(skip, 2);
+        }
+        if (node.elseCase != null) emitBranch(node.elseCase, dest);
+        else op(RegisterProgram.CONST, dest, constant(NumberValue.NULL));
+        for (int exit : exits) patch(exit, 1);
+    }
+
+    private void emitBranch(ConditionTuple branch, int dest)
+    {
+        emit(branch.statementsOrExpression, dest);
+        if (branch.isStatementBlock) op(RegisterProgram.CONST, dest, constant(NumberValue.NULL));
+    }
+
+    private void emitFor(ForNode node, int dest)
+    {
+        counts = true;
+        int start = allocate(), end = allocate(), elements = allocate();
+        emit(node.startValueNode, start);
+        emit(node.endValueNode, end);
+        // the step expression is evaluated for its effects only, like visit_ForNode
+        if (node.stepValueNode != null) emit(node.stepValueNode, dest);
+        op(RegisterProgram.FOR_INIT, start, start, end);
+        if (node.isStatementBlock) op(RegisterProgram.NEWLIST, elements);
+
+        int test = code.size();
+        int exit = op(RegisterProgram.FOR_TEST, start, constant(node), -1);
+        List<Integer> breaks = emitLoopBody(node, node.bodyNode, elements, test);
+        op(RegisterProgram.FOR_NEXT, start, test);
+        patch(exit, 3);
+        finishLoop(node, breaks, elements, dest);
+        top = start;
+    }
+
+    private void emitWhile(WhileNode node, int dest)
+    {
+        int elements = allocate();
+        if (node.isStatementBlock) op(RegisterProgram.NEWLIST, elements);
+
+        int test = code.size();
+        emit(node.conditionNode, dest);
+        int exit = op(RegisterProgram.JUMP_FALSE, dest, -1);
+        List<Integer> breaks = emitLoopBody(node, node.bodyNode, elements, test);
+        op(RegisterProgram.JUMP, test);
+        patch(exit, 2);
+        finishLoop(node, breaks, elements, dest);
+        top = elements;
+    }
+
+    // the operands still to point at the loop's end: those of each stop in the body, and of
+    // each call in it that can pass a stop up
+    private List<Integer> emitLoopBody(Node loop, Node body, int elements, int test)
+    {
+        List<Integer> outerBreaks = breakJumps;
+        int outerContinue = continueTarget;
+        breakJumps = new ArrayList<>();
+        continueTarget = test;
+
+        int value = allocate();
+        emit(body, value);
+        if (loop.isStatementBlock) op(RegisterProgram.APPEND, elements, value);
+        top = value;
+
+        List<Integer> breaks = breakJumps;
+        breakJumps = outerBreaks;
+        continueTarget = outerContinue;
+        return breaks;
+    }
+
+    private void finishLoop(Node loop, List<Integer> breaks, int elements, int dest)
+    {
+        for (int operand : breaks) code.set(operand, code.size());
+        if (loop.isStatementBlock)
+        {
+            op(RegisterProgram.MAKELIST, elements, constant(loop));
+            op(RegisterProgram.MOVE, dest, elements);
+        }
+        else op(RegisterProgram.CONST, dest, constant(NumberValue.NULL));
+    }
+
+    private void emitCall(CallNode node, int dest)
+    {
+        int callee = allocate();
+        allocate(); // the task the inline cache holds, or null
+        int cached = op(RegisterProgram.CACHED, callee, constant(node), -1);
+        emit(node.nodeToCall, callee);
+        op(RegisterProgram.CALLEE, callee, constant(node));
+        patch(cached, 3);
+
+        int first = top;
+        for (Node argNode : node.argNodes) emit(argNode, allocate());
+
+        int call = op(RegisterProgram.CALL, dest, callee, first, node.argNodes.size(), constant(node), continueTarget, -1);
+        if (breakJumps != null) breakJumps.add(call + 7);
+        top = callee;
+    }
+}
@@ -0,0 +1,325 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Locals of one task body: its parameters plus every name the body assigns
+ * (`this x is`, a for counter, a nested task name). A call frame keeps them in
+ * an array indexed by slot rather than in its HashMap.
+ */
+class FrameLayout
+{
+    final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> slots = new HashMap<>();
+    int[] params;
+    boolean spills; // a frame had to keep a name outside the layout in its map
+    final FramePool frames = new FramePool(this);
+
+    int declare(String name) {
+        return slots.computeIfAbsent(name, key -> {
+            names.add(key);
+            return names.size() - 1;
+        });
+    }
+
+    int slotOf(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    int size() {
+        return names.size();
+    }
+}
+
+/*
+ * Gives every variable node inside a task body the slot of its name in that
+ * body's FrameLayout. Tasks see their caller's variables (a new frame's parent
+ * is the calling context), so only a body's own locals have a fixed place:
+ * other names, globals and a local read before its first assignment still go
+ * through SymbolTable.get by name. Nodes left at slot -1 always do. A call that
+ * is directly given by the last statement of a task body, or of an if branch
+ * that is, is marked as a tail call: a give whose call fails does nothing, and
+ * only there does the task then end all the same.
+ *
+ * A task declared `memo` gets a MemoTable only if its result can depend on its
+ * arguments alone: it may read its parameters and the variables it has already
+ * assigned on every path (one assigned in an if branch or a loop body counts only
+ * inside it), and call memo tasks, itself included, but define no tasks. Names are
+ * looked up as the program runs, so a call counts as one to a memo task only if
+ * nothing else in the program binds its name: no other task, parameter, assignment
+ * or for counter. A callee that is itself refused refuses its callers too. Anything
+ * else would make it see its caller's variables, so it is refused with the reason.
+ */
+class Resolver
+{
+    private final FrameLayout layout; // null at the top level, where globals stay in the HashMap
+    private Map<String, FuncDefNode> memoTasks = Map.of(); // by the name only they bind
+    private Map<FuncDefNode, Set<FuncDefNode>> memoCallees = new LinkedHashMap<>();
+    private List<MemoTable> memoTables = new ArrayList<>();
+
+    private Resolver(FrameLayout layout) {
+        this.layout = layout;
+    }
+
+    // the tables of the program's memo tasks
+    public static List<MemoTable> resolve(Node node) {
+        Resolver resolver = new Resolver(null);
+        Map<String, Integer> bindings = new HashMap<>();
+        Map<String, FuncDefNode> memoTasks = new HashMap<>();
+        collectBindings(node, bindings, memoTasks);
+        memoTasks.keySet().removeIf(name -> bindings.get(name) != 1);
+        resolver.memoTasks = memoTasks;
+        resolver.resolveNode(node);
+        resolver.refuseImpureCallers();
+        return resolver.memoTables;
+    }
+
+    static FrameLayout layoutOf(FuncDefNode node) {
+        return new Resolver(null).layoutFor(node);
+    }
+
+    private FrameLayout layoutFor(FuncDefNode node)
+    {
+        FrameLayout layout = new FrameLayout();
+        layout.params = new int[node.argNameToks.size()];
+        for (int i = 0; i < layout.params.length; i++) {
+            layout.params[i] = layout.declare(node.argNameToks.get(i).value.toString());
+        }
+
+        Resolver resolver = new Resolver(layout);
+        resolver.memoTasks = memoTasks;
+        resolver.memoCallees = memoCallees;
+        resolver.memoTables = memoTables;
+        resolver.declare(node.bodyNode);
+        resolver.resolveNode(node.bodyNode);
+        if (!node.shouldAutoReturn) markTailCalls(node.bodyNode);
+        if (node.memoize) memoize(node, layout);
+        return layout;
+    }
+
+    // how many times each name is bound anywhere in the program, and its named memo tasks
+    private static void collectBindings(Node node, Map<String, Integer> bindings, Map<String, FuncDefNode> memoTasks)
+    {
+        if (node == null) return;
+        if (node instanceof VarAssignNode varAssignNode) bindings.merge(varAssignNode.varNameTok.value.toString(), 1, Integer::sum);
+        else if (node instanceof ForNode forNode) bindings.merge(forNode.varNameTok.value.toString(), 1, Integer::sum);
+        else if (node instanceof FuncDefNode funcDefNode)
+        {
+            for (Token argNameTok : funcDefNode.argNameToks) bindings.merge(argNameTok.value.toString(), 1, Integer::sum);
+            if (funcDefNode.varNameTok != null)
+            {
+                String name = funcDefNode.varNameTok.value.toString();
+                bindings.merge(name, 1, Integer::sum);
+                if (funcDefNode.memoize) memoTasks.put(name, funcDefNode);
+            }
+            collectBindings(funcDefNode.bodyNode, bindings, memoTasks);
+            return;
+        }
+        for (Node child : children(node)) collectBindings(child, bindings, memoTasks);
+    }
+
+    // refuses, until none is left, each memo task calling one that was refused
+    private void refuseImpureCallers()
+    {
+        boolean refused = true;
+        while (refused)
+        {
+            refused = false;
+            for (Map.Entry<FuncDefNode, Set<FuncDefNode>> calls : memoCallees.entrySet())
+            {
+                FuncDefNode caller = calls.getKey();
+                if (caller.memo == null) continue;
+                for (FuncDefNode callee : calls.getValue())
+                {
+                    if (callee.memo != null) continue;
+                    caller.memoRefusal = "it calls '" + callee.varNameTok.value + "', which cannot be memoized";
+                    memoTables.remove(caller.memo);
+                    caller.memo = null;
+                    refused = true;
+                    break;
+                }
+            }
+        }
+    }
+
+    private void memoize(FuncDefNode node, FrameLayout layout)
+    {
+        String taskName = (node.varNameTok != null) ? node.varNameTok.value.toString() : "<anonymous>";
+        Set<String> assigned = new HashSet<>();
+        for (int param : layout.params) assigned.add(layout.names.get(param));
+
+        Set<FuncDefNode> callees = new LinkedHashSet<>();
+        node.memoRefusal = impurity(node.bodyNode, assigned, callees);
+        node.memo = null;
+        if (node.memoRefusal == null) {
+            node.memo = new MemoTable(taskName);
+            memoTables.add(node.memo);
+            memoCallees.put(node, callees);
+        }
+    }
+
+    // why the value of node might depend on more than the task's arguments, or null;
+    // assigned grows with the variables set so far on every path, in evaluation order,
+    // and callees with the memo tasks called
+    private String impurity(Node node, Set<String> assigned, Set<FuncDefNode> callees)
+    {
+        if (node == null) return null;
+        if (node instanceof FuncDefNode) return "it defines a task";
+        if (node instanceof VarAccessNode varAccessNode)
+        {
+            String varName = varAccessNode.varNameTok.value.toString();
+            return assigned.contains(varName) ? null : "it reads '" + varName + "', which it has not assigned";
+        }
+        if (node instanceof CallNode callNode)
+        {
+            if (!(callNode.nodeToCall instanceof VarAccessNode callee)) return "it calls a task it does not name";
+            String calleeName = callee.varNameTok.value.toString();
+            FuncDefNode task = memoTasks.get(calleeName);
+            if (task == null) return "it calls '" + calleeName + "', which is not a memo task bound by that name alone";
+            callees.add(task);
+            return impurity(callNode.argNodes, assigned, callees);
+        }
+        // a branch or loop body may not run, so what it assigns counts only inside it
+        if (node instanceof ForNode forNode)
+        {
+            String reason = impurity(List.of(forNode.startValueNode, forNode.endValueNode), assigned, callees);
+            if (reason == null) reason = impurity(forNode.stepValueNode, assigned, callees);
+            Set<String> inBody = new HashSet<>(assigned);
+            inBody.add(forNode.varNameTok.value.toString());
+            return (reason != null) ? reason : impurity(forNode.bodyNode, inBody, callees);
+        }
+        if (node instanceof WhileNode whileNode)
+        {
+            String reason = impurity(whileNode.conditionNode, assigned, callees);
+            return (reason != null) ? reason : impurity(whileNode.bodyNode, new HashSet<>(assigned), callees);
+        }
+        if (node instanceof IfNode ifNode)
+        {
+            List<ConditionTuple> branches = new ArrayList<>(ifNode.cases);
+            if (ifNode.elseCase != null) branches.add(ifNode.elseCase);
+            for (ConditionTuple branch : branches)
+            {
+                Set<String> inBranch = new HashSet<>(assigned);
+                String reason = impurity(branch.condition, inBranch, callees);
+                if (reason == null) reason = impurity(branch.statementsOrExpression, inBranch, callees);
+                if (reason != null) return reason;
+            }
+            return null;
+        }
+
+        String reason = impurity(children(node), assigned, callees);
+        if (node instanceof VarAssignNode varAssignNode) assigned.add(varAssignNode.varNameTok.value.toString());
+        return reason;
+    }
+
+    private String impurity(List<Node> nodes, Set<String> assigned, Set<FuncDefNode> callees)
+    {
+        for (Node node : nodes) {
+            String reason = impurity(node, assigned, callees);
+            if (reason != null) return reason;
+        }
+        return null;
+    }
+
+    private int slotOf(Token varNameTok) {
+        return layout == null ? -1 : layout.slotOf(varNameTok.value.toString());
+    }
+
+    private void declare(Node node)
+    {
+        if (node == null) return;
+        if (node instanceof VarAssignNode varAssignNode) layout.declare(varAssignNode.varNameTok.value.toString());
+        else if (node instanceof ForNode forNode) layout.declare(forNode.varNameTok.value.toString());
+        else if (node instanceof FuncDefNode funcDefNode)
+        {
+            // the nested body gets a frame of its own
+            if (funcDefNode.varNameTok != null) layout.declare(funcDefNode.varNameTok.value.toString());
+            return;
+        }
+        for (Node child : children(node)) declare(child);
+    }
+
+    private void resolveNode(Node node)
+    {
+        if (node == null) return;
+        if (node instanceof VarAccessNode varAccessNode) varAccessNode.slot = slotOf(varAccessNode.varNameTok);
+        else if (node instanceof VarAssignNode varAssignNode) varAssignNode.slot = slotOf(varAssignNode.varNameTok);
+        else if (node instanceof ForNode forNode) forNode.slot = slotOf(forNode.varNameTok);
+        // what the last run of a cached tree left in it starts over
+        else if (node instanceof CallNode callNode) callNode.cachedBody = null;
+        else if (node instanceof InvariantNode invariantNode) invariantNode.forget();
+        else if (node instanceof FuncDefNode funcDefNode)
+        {
+            if (funcDefNode.varNameTok != null) funcDefNode.slot = slotOf(funcDefNode.varNameTok);
+            funcDefNode.layout = layoutFor(funcDefNode);
+            return;
+        }
+        for (Node child : children(node)) resolveNode(child);
+    }
+
+    // the calls given by the statements a task body may run last
+    private static void markTailCalls(Node node)
+    {
+        if (node instanceof ListNode listNode && !listNode.elementNodes.isEmpty())
+            markTailCalls(listNode.elementNodes.get(listNode.elementNodes.size() - 1));
+        else if (node instanceof IfNode ifNode)
+        {
+            for (ConditionTuple ifCase : ifNode.cases) markTailCalls(ifCase.statementsOrExpression);
+            if (ifNode.elseCase != null) markTailCalls(ifNode.elseCase.statementsOrExpression);
+        }
+        else if (node instanceof ReturnNode returnNode && returnNode.returnNode instanceof CallNode callNode) callNode.tail = true;
+    }
+
+    private static List<Node> children(Node node)
+    {
+        List<Node> children = new ArrayList<>();
+        if (node instanceof ListNode listNode) children.addAll(listNode.elementNodes);
+        else if (node instanceof VarAssignNode varAssignNode) children.add(varAssignNode.valueNode);
+        else if (node instanceof UnaryOpNode unaryOpNode) children.add(unaryOpNode.node);
+        else if (node instanceof BinOpNode binOpNode)
+        {
+            children.add(binOpNode.left);
+            children.add(binOpNode.right);
+        }
+        else if (node instanceof IfNode ifNode)
+        {
+            for (ConditionTuple ifCase : ifNode.cases)
+            {
+                children.add(ifCase.condition);
+                children.add(ifCase.statementsOrExpression);
+            }
+            if (ifNode.elseCase != null)
+            {
+                children.add(ifNode.elseCase.condition);
+                children.add(ifNode.elseCase.statementsOrExpression);
+            }
+        }
+        else if (node instanceof ForNode forNode)
+        {
+            children.add(forNode.startValueNode);
+            children.add(forNode.endValueNode);
+            children.add(forNode.stepValueNode);
+            children.add(forNode.bodyNode);
+        }
+        else if (node instanceof WhileNode whileNode)
+        {
+            children.add(whileNode.conditionNode);
+            children.add(whileNode.bodyNode);
+        }
+        else if (node instanceof CallNode callNode)
+        {
+            children.add(callNode.nodeToCall);
+            children.addAll(callNode.argNodes);
+        }
+        else if (node instanceof ReturnNode returnNode) children.add(returnNode.returnNode);
+        else if (node instanceof InvariantNode invariantNode) children.add(invariantNode.expr);
+        else if (node instanceof FusedNode fusedNode) children.add(fusedNode.original);
+        return children;
+    }
+}
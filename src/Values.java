@@ -1,4 +1,5 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -7,18 +8,74 @@ class SymbolTable
 {
     private Map<String, Value> symbols;
     private SymbolTable parent;
+    final FrameLayout layout;
+    private final Value[] slots;
+    private SymbolTable outer; // first table up the chain that is not a frame of the same task
+    private boolean frozen;
+    boolean pinned; // a frame called from this one outlived its call, see FramePool
 
     public SymbolTable() {
         this(null);
     }
 
     public SymbolTable(SymbolTable parent) {
-        this.symbols = new HashMap<>();
+        this(parent, null);
+    }
+
+    // a task frame: names of the layout live in slots, anything else in the map
+    public SymbolTable(SymbolTable parent, FrameLayout layout) {
+        this.layout = layout;
+        this.slots = (layout != null) ? new Value[layout.size()] : null;
+        if (layout == null) this.symbols = new HashMap<>();
+        setParent(parent);
+    }
+
+    private void setParent(SymbolTable parent) {
         this.parent = parent;
+        this.outer = (parent != null && layout != null && parent.layout == layout) ? parent.outer : parent;
+    }
+
+    // a returned frame's table, emptied so the pool keeps none of its values alive
+    void clear() {
+        Arrays.fill(slots, null);
+        symbols = null;
+        pinned = false;
+        setParent(null);
     }
 
+    void reuse(SymbolTable parent) {
+        setParent(parent);
+    }
+
+
+    /*
+     * Walks up the chain in a loop: under deep recursion it is as long as the call
+     * stack. A name that is not a local of this task is not one of the frames of the
+     * same task right below it either (their maps stay empty unless the layout
+     * spills), so the walk jumps over them to outer.
+     */
     public Value get(String name) {
-        Value value = symbols.get(name);
+        SymbolTable table = this;
+        while (table != null) {
+            int slot = (table.layout != null) ? table.layout.slotOf(name) : -1;
+            Value value;
+            if (slot >= 0) value = table.slots[slot];
+            else if (table.symbols != null) value = table.symbols.get(name);
+            else {
+                table = table.layout.spills ? table.parent : table.outer;
+                continue;
+            }
+            if (value != null) return value;
+            table = table.parent;
+        }
+        return null;
+    }
+
+    // slot comes from the Resolver, -1 means look the name up; a slot still empty
+    // moves on to the parent by name
+    public Value get(int slot, String name) {
+        if (slot < 0) return get(name);
+        Value value = slots[slot];
         if (value == null && parent != null) {
             return parent.get(name);
         }
@@ -26,11 +83,60 @@ class SymbolTable
     }
 
     public void set(String name, Value value) {
+        int slot = (layout != null) ? layout.slotOf(name) : -1;
+        if (slot >= 0) {
+            slots[slot] = value;
+            return;
+        }
+        if (symbols == null) {
+            symbols = new HashMap<>();
+            layout.spills = true;
+        }
         symbols.put(name, value);
     }
 
+    public void set(int slot, String name, Value value) {
+        if (slot < 0) set(name, value);
+        else slots[slot] = value;
+    }
+
+    /*
+     * Called on the table of a frame that has ended in a tail call. Nothing writes
+     * to it any more, but the callee still reads through it, so when its parent is
+     * such a finished table too, both are folded into one copy. A chain of tail
+     * calls then keeps a single table above the running frame instead of one per call.
+     */
+    SymbolTable freeze() {
+        frozen = true;
+        if (parent == null || !parent.frozen) return this;
+        SymbolTable merged = new SymbolTable(parent.parent);
+        merged.frozen = true;
+        parent.copyInto(merged.symbols);
+        copyInto(merged.symbols);
+        return merged;
+    }
+
+    // a variable read always takes the reader's context, so the copies drop theirs:
+    // it would keep the finished frame, and the whole chain behind it, reachable
+    private void copyInto(Map<String, Value> target) {
+        if (symbols != null) {
+            symbols.forEach((name, value) -> {
+                if (value != null) target.put(name, value.copy().setContext(null));
+            });
+        }
+        for (int i = 0; slots != null && i < slots.length; i++) {
+            if (slots[i] != null) target.put(layout.names.get(i), slots[i].copy().setContext(null));
+        }
+    }
+
+    void pinParent() {
+        if (parent != null) parent.pinned = true;
+    }
+
     public void remove(String name) {
-        symbols.remove(name);
+        int slot = (layout != null) ? layout.slotOf(name) : -1;
+        if (slot >= 0) slots[slot] = null;
+        else if (symbols != null) symbols.remove(name);
     }
 }
 
@@ -40,11 +146,33 @@ class Context
     public Context parent;
     public Position parentEntryPos;
     public SymbolTable symbolTable;
+    // every node evaluated in this context reports through this one result instead of a new
+    // RTResult each: a parent reads it before evaluating its next child
+    public final RTResult result = new RTResult();
+    // task calls this context is nested in, and how deep they may go before the
+    // program fails with a runtime error instead of overflowing the Java stack
+    public int depth;
+    public int maxDepth = DEFAULT_MAX_DEPTH;
+    // tail calls one call may run in a row, which take no depth, before it fails
+    public int maxTailCalls = DEFAULT_MAX_TAIL_CALLS;
+
+    static final int DEFAULT_MAX_DEPTH = 10000;
+    static final int DEFAULT_MAX_TAIL_CALLS = 10_000_000;
 
     public Context(String displayName, Context parent, Position parentEntryPos) {
+        enter(displayName, parent, parentEntryPos);
+    }
+
+    // also how a pooled frame is set up again for its next call
+    void enter(String displayName, Context parent, Position parentEntryPos) {
         this.displayName = displayName;
         this.parent = parent;
         this.parentEntryPos = parentEntryPos;
+        if (parent != null) {
+            this.depth = parent.depth + 1;
+            this.maxDepth = parent.maxDepth;
+            this.maxTailCalls = parent.maxTailCalls;
+        }
     }
 
     public Context(String displayName)
@@ -57,19 +185,83 @@ class Context
     }
 }
 
+/*
+ * Frames of one task that have returned, handed to its next calls instead of
+ * a new Context, SymbolTable and slot array each. A frame may only come back
+ * here when nothing can reach it any more. Variables hold no reference to the
+ * frame that stored them (a read gives the value the reader's context), and
+ * the value a call returns is copied into the caller's context. What can still
+ * lead back to a frame after it returns:
+ * - the elements of a list it returns;
+ * - an error it raised, which keeps the frame for the traceback;
+ * - the frame a tail call replaced, still read by the callee;
+ * - a frame it called that was kept for one of these reasons.
+ * Such frames are left to the garbage collector, and a frame kept this way pins
+ * the frames its own parents belong to, so those are kept as well.
+ */
+class FramePool
+{
+    private static final int CAPACITY = 16;
+
+    private final FrameLayout layout;
+    private final Context[] free = new Context[CAPACITY];
+    private int size;
+
+    FramePool(FrameLayout layout) {
+        this.layout = layout;
+    }
+
+    Context acquire(String name, Context caller, Position entryPos, SymbolTable parentTable) {
+        if (size == 0) {
+            Context frame = new Context(name, caller, entryPos);
+            frame.setSymbolTable(new SymbolTable(parentTable, layout));
+            return frame;
+        }
+        Context frame = free[--size];
+        free[size] = null;
+        frame.enter(name, caller, entryPos);
+        frame.result.reset();
+        frame.symbolTable.reuse(parentTable);
+        return frame;
+    }
+
+    // a frame whose call has returned value
+    void release(Context frame, Value value) {
+        if (value instanceof ListValue || frame.symbolTable.pinned) {
+            if (frame.parent != null) frame.parent.symbolTable.pinned = true;
+            frame.symbolTable.pinParent();
+        } else if (size < CAPACITY) {
+            frame.symbolTable.clear();
+            free[size++] = frame;
+        }
+    }
+}
+
 abstract class Value
 {
     public Position posStart;
     public Position posEnd;
     public Context context;
     public Number Value;
+    // shared values (literal constants, cached integers) are never mutated:
+    // setPos/setContext hand back a copy instead, so callers must use the result
+    boolean shared;
 
     public Value() {
         setPos();
         setContext();
     }
 
+    public Value share() {
+        this.shared = true;
+        return this;
+    }
+
     public Value setPos(Position posStart, Position posEnd) {
+        if (shared) {
+            if (posStart == this.posStart && posEnd == this.posEnd) return this;
+            return copy().setPos(posStart, posEnd);
+        }
         this.posStart = posStart;
         this.posEnd = posEnd;
         return this;
@@ -80,6 +272,10 @@ abstract class Value
     }
 
     public Value setContext(Context context) {
+        if (shared) {
+            if (context == this.context) return this;
+            return copy().setContext(context);
+        }
         this.context = context;
         return this;
     }
@@ -88,60 +284,60 @@ abstract class Value
         return setContext(null);
     }
 
-    public RTResult addedTo(Value other) {
-        return new RTResult().failure(illegalOperation(other));
+    public RTResult addedTo(Value other, RTResult res) {
+        return res.failure(illegalOperation(other));
     }
 
-    public RTResult subbedBy(Value other) {
-        return new RTResult().failure(illegalOperation(other));
+    public RTResult subbedBy(Value other, RTResult res) {
+        return res.failure(illegalOperation(other));
     }
 
-    public RTResult multedBy(Value other) {
-        return new RTResult().failure(illegalOperation(other));
+    public RTResult multedBy(Value other, RTResult res) {
+        return res.failure(illegalOperation(other));
     }
 
-    public RTResult divedBy(Value other) {
-        return new RTResult().failure(illegalOperation(other));
+    public RTResult divedBy(Value other, RTResult res) {
+        return res.failure(illegalOperation(other));
     }
 
-    public RTResult powedBy(Value other) {
-        return new RTResult().failure(illegalOperation(other));
+    public RTResult powedBy(Value other, RTResult res) {
+        return res.failure(illegalOperation(other));
     }
 
-    public RTResult getComparisonEq(Value other) {
-        return new RTResult().failure(illegalOperation(other));
+    public RTResult getComparisonEq(Value other, RTResult res) {
+        return res.failure(illegalOperation(other));
     }
 
-    public RTResult getComparisonNe(Value other) {
-        return new RTResult().failure(illegalOperation(other));
+    public RTResult getComparisonNe(Value other, RTResult res) {
+        return res.failure(illegalOperation(other));
     }
 
-    public RTResult getComparisonLt(Value other) {
-        return new RTResult().failure(illegalOperation(other));
+    public RTResult getComparisonLt(Value other, RTResult res) {
+        return res.failure(illegalOperation(other));
     }
 
-    public RTResult getComparisonGt(Value other) {
-        return new RTResult().failure(illegalOperation(other));
+    public RTResult getComparisonGt(Value other, RTResult res) {
+        return res.failure(illegalOperation(other));
     }
 
-    public RTResult getComparisonLte(Value other) {
-        return new RTResult().failure(illegalOperation(other));
+    public RTResult getComparisonLte(Value other, RTResult res) {
+        return res.failure(illegalOperation(other));
     }
 
-    public RTResult getComparisonGte(Value other) {
-        return new RTResult().failure(illegalOperation(other));
+    public RTResult getComparisonGte(Value other, RTResult res) {
+        return res.failure(illegalOperation(other));
     }
 
-    public RTResult andedBy(Value other) {
-        return new RTResult().failure(illegalOperation(other));
+    public RTResult andedBy(Value other, RTResult res) {
+        return res.failure(illegalOperation(other));
     }
 
-    public RTResult oredBy(Value other) {
-        return new RTResult().failure(illegalOperation(other));
+    public RTResult oredBy(Value other, RTResult res) {
+        return res.failure(illegalOperation(other));
     }
 
-    public RTResult notted() {
-        return new RTResult().failure(illegalOperation(null));
+    public RTResult notted(RTResult res) {
+        return res.failure(illegalOperation(null));
     }
 
     public RTResult execute(List<Value> args) {
@@ -178,161 +374,138 @@ class NumberValue extends Value
     }
 
     @Override
-    public RTResult addedTo(Value other) {
+    public RTResult addedTo(Value other, RTResult res) {
         if (other instanceof NumberValue numberValue) {
-            NumberValue result = new NumberValue(this.value + numberValue.value);
-            result.setContext(this.context);
-            return new RTResult().success(result);
+            return res.success(new NumberValue(this.value + numberValue.value).setContext(this.context));
         } else {
-            return new RTResult().failure(illegalOperation(other));
+            return res.failure(illegalOperation(other));
         }
     }
 
     @Override
-    public RTResult subbedBy(Value other) {
+    public RTResult subbedBy(Value other, RTResult res) {
         if (other instanceof NumberValue numberValue) {
-            NumberValue result = new NumberValue(this.value - numberValue.value);
-            result.setContext(this.context);
-            return new RTResult().success(result);
+            return res.success(new NumberValue(this.value - numberValue.value).setContext(this.context));
         } else {
-            return new RTResult().failure(illegalOperation(other));
+            return res.failure(illegalOperation(other));
         }
     }
 
     @Override
-    public RTResult multedBy(Value other) {
+    public RTResult multedBy(Value other, RTResult res) {
         if (other instanceof NumberValue numberValue) {
-            NumberValue result = new NumberValue(this.value * numberValue.value);
-            result.setContext(this.context);
-            return new RTResult().success(result);
+            return res.success(new NumberValue(this.value * numberValue.value).setContext(this.context));
         } else {
-            return new RTResult().failure(illegalOperation(other));
+            return res.failure(illegalOperation(other));
         }
     }
 
     @Override
-    public RTResult divedBy(Value other) {
+    public RTResult divedBy(Value other, RTResult res) {
         if (other instanceof NumberValue numberValue) {
             if (numberValue.value == 0) {
-                return new RTResult().failure(new RTError(
+                return res.failure(new RTError(
                         other.posStart, other.posEnd,
                         " Division by zero",
                         this.context
                 ));
             }
 
-            NumberValue result = new NumberValue(this.value / numberValue.value);
-            result.setContext(this.context);
-            return new RTResult().success(result);
+            return res.success(new NumberValue(this.value / numberValue.value).setContext(this.context));
         } else {
-            return new RTResult().failure(illegalOperation(other));
+            return res.failure(illegalOperation(other));
         }
     }
 
     @Override
-    public RTResult powedBy(Value other) {
+    public RTResult powedBy(Value other, RTResult res) {
         if (other instanceof NumberValue numberValue) {
-            NumberValue result = new NumberValue(Math.pow(this.value, numberValue.value));
-            result.setContext(this.context);
-            return new RTResult().success(result);
+            return res.success(new NumberValue(Math.pow(this.value, numberValue.value)).setContext(this.context));
         } else {
-            return new RTResult().failure(illegalOperation(other));
+            return res.failure(illegalOperation(other));
         }
     }
 
+    // comparisons and logic produce integer 0/1
+    RTResult bool(boolean truth, RTResult res) {
+        return res.success(IntegerValue.valueOf(truth ? 1 : 0).setContext(this.context));
+    }
+
     @Override
-    public RTResult getComparisonEq(Value other) {
+    public RTResult getComparisonEq(Value other, RTResult res) {
         if (other instanceof NumberValue numberValue) {
-            NumberValue result = new NumberValue(this.value == numberValue.value ? 1 : 0);
-            result.setContext(this.context);
-            return new RTResult().success(result);
+            return bool(this.value == numberValue.value, res);
         } else {
-            return new RTResult().failure(illegalOperation(other));
+            return res.failure(illegalOperation(other));
         }
     }
 
     @Override
-    public RTResult getComparisonNe(Value other) {
+    public RTResult getComparisonNe(Value other, RTResult res) {
         if (other instanceof NumberValue numberValue) {
-            NumberValue result = new NumberValue(this.value != numberValue.value ? 1 : 0);
-            result.setContext(this.context);
-            return new RTResult().success(result);
+            return bool(this.value != numberValue.value, res);
         } else {
-            return new RTResult().failure(illegalOperation(other));
+            return res.failure(illegalOperation(other));
         }
     }
 
     @Override
-    public RTResult getComparisonLt(Value other) {
+    public RTResult getComparisonLt(Value other, RTResult res) {
         if (other instanceof NumberValue numberValue) {
-            NumberValue result = new NumberValue(this.value < numberValue.value ? 1 : 0);
-            result.setContext(this.context);
-            return new RTResult().success(result);
+            return bool(this.value < numberValue.value, res);
         } else {
-            return new RTResult().failure(illegalOperation(other));
+            return res.failure(illegalOperation(other));
         }
     }
 
     @Override
-    public RTResult getComparisonGt(Value other) {
+    public RTResult getComparisonGt(Value other, RTResult res) {
         if (other instanceof NumberValue numberValue) {
-            NumberValue result = new NumberValue(this.value > numberValue.value ? 1 : 0);
-            result.setContext(this.context);
-            return new RTResult().success(result);
+            return bool(this.value > numberValue.value, res);
         } else {
-            return new RTResult().failure(illegalOperation(other));
+            return res.failure(illegalOperation(other));
         }
     }
 
     @Override
-    public RTResult getComparisonLte(Value other) {
+    public RTResult getComparisonLte(Value other, RTResult res) {
         if (other instanceof NumberValue numberValue) {
-            NumberValue result = new NumberValue(this.value <= numberValue.value ? 1 : 0);
-            result.setContext(this.context);
-            return new RTResult().success(result);
+            return bool(this.value <= numberValue.value, res);
         } else {
-            return new RTResult().failure(illegalOperation(other));
+            return res.failure(illegalOperation(other));
         }
     }
 
     @Override
-    public RTResult getComparisonGte(Value other) {
+    public RTResult getComparisonGte(Value other, RTResult res) {
         if (other instanceof NumberValue numberValue) {
-            NumberValue result = new NumberValue(this.value >= numberValue.value ? 1 : 0);
-            result.setContext(this.context);
-            return new RTResult().success(result);
+            return bool(this.value >= numberValue.value, res);
         } else {
-            return new RTResult().failure(illegalOperation(other));
+            return res.failure(illegalOperation(other));
         }
     }
 
     @Override
-    public RTResult andedBy(Value other) {
+    public RTResult andedBy(Value other, RTResult res) {
         if (other instanceof NumberValue numberValue) {
-            NumberValue result = new NumberValue((this.isTrue() && numberValue.isTrue()) ? 1 : 0);
-            result.setContext(this.context);
-            return new RTResult().success(result);
+            return bool(this.isTrue() && numberValue.isTrue(), res);
         } else {
-            return new RTResult().failure(illegalOperation(other));
+            return res.failure(illegalOperation(other));
         }
     }
 
     @Override
-    public RTResult oredBy(Value other) {
+    public RTResult oredBy(Value other, RTResult res) {
         if (other instanceof NumberValue numberValue) {
-            NumberValue result = new NumberValue((this.isTrue() || numberValue.isTrue()) ? 1 : 0);
-            result.setContext(this.context);
-            return new RTResult().success(result);
+            return bool(this.isTrue() || numberValue.isTrue(), res);
         } else {
-            return new RTResult().failure(illegalOperation(other));
+            return res.failure(illegalOperation(other));
         }
     }
 
     @Override
-    public RTResult notted() {
-        NumberValue result = new NumberValue(this.isTrue() ? 0 : 1);
-        result.setContext(this.context);
-        return new RTResult().success(result);
+    public RTResult notted(RTResult res) {
+        return bool(!this.isTrue(), res);
     }
 
     @Override
@@ -358,10 +531,151 @@ class NumberValue extends Value
         return toString();
     }    
 
-    public static final NumberValue NULL = new NumberValue(0);
-    public static final NumberValue FALSE = new NumberValue(0);
-    public static final NumberValue TRUE = new NumberValue(1);
-    public static final NumberValue MATH_PI = new NumberValue(Math.PI);
+    public static final NumberValue NULL = (NumberValue) new IntegerValue(0).share();
+    public static final NumberValue FALSE = (NumberValue) new IntegerValue(0).share();
+    public static final NumberValue TRUE = (NumberValue) new IntegerValue(1).share();
+    public static final NumberValue MATH_PI = (NumberValue) new NumberValue(Math.PI).share();
+}
+
+/*
+ * Whole numbers from TT_INT literals. value mirrors intValue as a double so
+ * every NumberValue code path keeps working; integer-with-integer arithmetic
+ * stays exact and falls back to a double NumberValue when it would overflow,
+ * or when it would lose the sign of a zero: 0 * -1 and -0 give -0.0. They print as NumberValue does, so 1 still prints as 1.0. Instances from
+ * valueOf are shared.
+ */
+class IntegerValue extends NumberValue
+{
+    private static final int CACHE_LOW = -128, CACHE_HIGH = 1024;
+    private static final IntegerValue[] CACHE = new IntegerValue[CACHE_HIGH - CACHE_LOW + 1];
+
+    static {
+        for (int i = 0; i < CACHE.length; i++) {
+            CACHE[i] = (IntegerValue) new IntegerValue(i + CACHE_LOW).share();
+        }
+    }
+
+    final long intValue;
+
+    public IntegerValue(long intValue) {
+        super((double) intValue);
+        this.intValue = intValue;
+    }
+
+    static IntegerValue valueOf(long intValue) {
+        if (intValue >= CACHE_LOW && intValue <= CACHE_HIGH) return CACHE[(int) intValue - CACHE_LOW];
+        return new IntegerValue(intValue);
+    }
+
+    // a zero product the double arithmetic would give as -0.0
+    static boolean isNegativeZero(long left, long right) {
+        return (left == 0 || right == 0) && (left < 0 || right < 0);
+    }
+
+    // throws ArithmeticException when the result does not fit in a long
+    static long exactPow(long base, long exponent) {
+        long result = 1;
+        while (exponent > 0) {
+            if ((exponent & 1) == 1) result = Math.multiplyExact(result, base);
+            exponent >>= 1;
+            if (exponent > 0) base = Math.multiplyExact(base, base);
+        }
+        return result;
+    }
+
+    @Override
+    public RTResult addedTo(Value other, RTResult res) {
+        if (other instanceof IntegerValue integerValue) {
+            try {
+                return res.success(IntegerValue.valueOf(Math.addExact(intValue, integerValue.intValue)).setContext(this.context));
+            } catch (ArithmeticException overflow) {
+                // fall through to double arithmetic
+            }
+        }
+        return super.addedTo(other, res);
+    }
+
+    @Override
+    public RTResult subbedBy(Value other, RTResult res) {
+        if (other instanceof IntegerValue integerValue) {
+            try {
+                return res.success(IntegerValue.valueOf(Math.subtractExact(intValue, integerValue.intValue)).setContext(this.context));
+            } catch (ArithmeticException overflow) {
+                // fall through to double arithmetic
+            }
+        }
+        return super.subbedBy(other, res);
+    }
+
+    @Override
+    public RTResult multedBy(Value other, RTResult res) {
+        if (other instanceof IntegerValue integerValue && !isNegativeZero(intValue, integerValue.intValue)) {
+            try {
+                return res.success(IntegerValue.valueOf(Math.multiplyExact(intValue, integerValue.intValue)).setContext(this.context));
+            } catch (ArithmeticException overflow) {
+                // fall through to double arithmetic
+            }
+        }
+        return super.multedBy(other, res);
+    }
+
+    @Override
+    public RTResult powedBy(Value other, RTResult res) {
+        if (other instanceof IntegerValue integerValue && integerValue.intValue >= 0) {
+            try {
+                return res.success(IntegerValue.valueOf(exactPow(intValue, integerValue.intValue)).setContext(this.context));
+            } catch (ArithmeticException overflow) {
+                // fall through to double arithmetic
+            }
+        }
+        return super.powedBy(other, res);
+    }
+
+    @Override
+    public RTResult getComparisonEq(Value other, RTResult res) {
+        if (other instanceof IntegerValue integerValue) return bool(intValue == integerValue.intValue, res);
+        return super.getComparisonEq(other, res);
+    }
+
+    @Override
+    public RTResult getComparisonNe(Value other, RTResult res) {
+        if (other instanceof IntegerValue integerValue) return bool(intValue != integerValue.intValue, res);
+        return super.getComparisonNe(other, res);
+    }
+
+    @Override
+    public RTResult getComparisonLt(Value other, RTResult res) {
+        if (other instanceof IntegerValue integerValue) return bool(intValue < integerValue.intValue, res);
+        return super.getComparisonLt(other, res);
+    }
+
+    @Override
+    public RTResult getComparisonGt(Value other, RTResult res) {
+        if (other instanceof IntegerValue integerValue) return bool(intValue > integerValue.intValue, res);
+        return super.getComparisonGt(other, res);
+    }
+
+    @Override
+    public RTResult getComparisonLte(Value other, RTResult res) {
+        if (other instanceof IntegerValue integerValue) return bool(intValue <= integerValue.intValue, res);
+        return super.getComparisonLte(other, res);
+    }
+
+    @Override
+    public RTResult getComparisonGte(Value other, RTResult res) {
+        if (other instanceof IntegerValue integerValue) return bool(intValue >= integerValue.intValue, res);
+        return super.getComparisonGte(other, res);
+    }
+
+    @Override
+    public IntegerValue copy() {
+        IntegerValue copy = new IntegerValue(this.intValue);
+        copy.setPos(this.posStart, this.posEnd);
+        copy.setContext(this.context);
+        return copy;
+    }
+
+    public static final IntegerValue MINUS_ONE = (IntegerValue) new IntegerValue(-1).share();
 }
 
 class StringValue extends Value 
@@ -374,25 +688,25 @@ class StringValue extends Value
     }
     
     @Override
-    public RTResult addedTo(Value other) {
+    public RTResult addedTo(Value other, RTResult res) {
         if (other instanceof StringValue stringValue) {
-            return new RTResult().success(new StringValue(this.value + stringValue.value).setContext(this.context));
+            return res.success(new StringValue(this.value + stringValue.value).setContext(this.context));
         } else {
-            return new RTResult().failure(illegalOperation(other));
+            return res.failure(illegalOperation(other));
         }
     }
 
     @Override
-    public RTResult multedBy(Value other) {
+    public RTResult multedBy(Value other, RTResult res) {
         if (other instanceof NumberValue numberValue) {
             double mulValue = numberValue.value;
             StringBuilder sb = new StringBuilder();
             for (int i = 0; i < mulValue; i++) {
                 sb.append(this.value);
             }
-            return new RTResult().success(new StringValue(sb.toString()).setContext(this.context));
+            return res.success(new StringValue(sb.toString()).setContext(this.context));
         } else {
-            return new RTResult().failure(illegalOperation(other));
+            return res.failure(illegalOperation(other));
         }
     }
 
@@ -420,85 +734,237 @@ class StringValue extends Value
     }
 }
 
+/*
+ * Elements of a list holding only integers or only non-integer numbers, packed
+ * 8 bytes each: integers as longs, the others as the raw bits of their double.
+ * A list appended to by the last list made from the buffer writes in place
+ * after its own elements; any other list copies them first, so a list never
+ * sees elements change.
+ */
+class NumericElements
+{
+    private static final class Buffer
+    {
+        long[] data;
+        int used;
+
+        Buffer(long[] data, int used) {
+            this.data = data;
+            this.used = used;
+        }
+    }
+
+    final boolean integral;
+    private final Buffer buffer;
+    private final int size;
+
+    private NumericElements(boolean integral, Buffer buffer, int size) {
+        this.integral = integral;
+        this.buffer = buffer;
+        this.size = size;
+    }
+
+    // null unless every element is a number of the same kind
+    static NumericElements pack(List<Value> elements)
+    {
+        if (elements.isEmpty() || !(elements.get(0) instanceof NumberValue first)) return null;
+        boolean integral = first instanceof IntegerValue;
+        long[] data = new long[elements.size()];
+        for (int i = 0; i < data.length; i++) {
+            Value element = elements.get(i);
+            if (!(element instanceof NumberValue numberValue) || (element instanceof IntegerValue) != integral) return null;
+            data[i] = bits(numberValue);
+        }
+        return new NumericElements(integral, new Buffer(data, data.length), data.length);
+    }
+
+    static NumericElements of(Value element) {
+        return pack(List.of(element));
+    }
+
+    private static long bits(NumberValue numberValue) {
+        if (numberValue instanceof IntegerValue integerValue) return integerValue.intValue;
+        return Double.doubleToRawLongBits(numberValue.value);
+    }
+
+    private boolean accepts(Value element) {
+        return element instanceof NumberValue && (element instanceof IntegerValue) == integral;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // unpositioned and without a context; the operator reading it positions the result
+    NumberValue get(int index) {
+        long bits = buffer.data[index];
+        return integral ? IntegerValue.valueOf(bits) : new NumberValue(Double.longBitsToDouble(bits));
+    }
+
+    // room for extra more elements after ours, in place when no other list has grown the buffer
+    private Buffer reserve(int extra) {
+        if (size == buffer.used && size + extra <= buffer.data.length) return buffer;
+        long[] data = Arrays.copyOf(buffer.data, Math.max(size + extra, size * 2));
+        return new Buffer(data, size);
+    }
+
+    // null when the element is not of this kind
+    NumericElements append(Value element)
+    {
+        if (!accepts(element)) return null;
+        Buffer target = reserve(1);
+        target.data[size] = bits((NumberValue) element);
+        target.used = size + 1;
+        return new NumericElements(integral, target, size + 1);
+    }
+
+    NumericElements appendAll(NumericElements other)
+    {
+        if (other.integral != integral) return null;
+        Buffer target = reserve(other.size);
+        System.arraycopy(other.buffer.data, 0, target.data, size, other.size);
+        target.used = size + other.size;
+        return new NumericElements(integral, target, size + other.size);
+    }
+
+    NumericElements without(int index)
+    {
+        long[] data = new long[size - 1];
+        System.arraycopy(buffer.data, 0, data, 0, index);
+        System.arraycopy(buffer.data, index + 1, data, index, size - index - 1);
+        return new NumericElements(integral, new Buffer(data, data.length), data.length);
+    }
+
+    PersistentVector<Value> toVector() {
+        PersistentVector<Value> vector = PersistentVector.empty();
+        for (int i = 0; i < size; i++) vector = vector.append(get(i));
+        return vector;
+    }
+}
+
 class ListValue extends Value
 {
-    public List<Value> elements;
+    // persistent, so copies and the lists built from this one share its structure;
+    // null while the list is packed in numbers
+    public PersistentVector<Value> elements;
+    NumericElements numbers;
 
     public ListValue(List<Value> elements) {
         super();
-        this.elements = new ArrayList<>(elements);
+        this.numbers = NumericElements.pack(elements);
+        if (numbers == null) this.elements = PersistentVector.of(elements);
+    }
+
+    private ListValue(PersistentVector<Value> elements, NumericElements numbers) {
+        super();
+        this.elements = elements;
+        this.numbers = numbers;
+    }
+
+    private ListValue with(PersistentVector<Value> elements, NumericElements numbers) {
+        ListValue newList = new ListValue(elements, numbers);
+        newList.setPos(this.posStart, this.posEnd);
+        newList.setContext(this.context);
+        return newList;
+    }
+
+    private ListValue withElements(PersistentVector<Value> elements) {
+        return with(elements, null);
+    }
+
+    private ListValue withNumbers(NumericElements numbers) {
+        return with(null, numbers);
+    }
+
+    public int size() {
+        return (numbers != null) ? numbers.size() : elements.size();
+    }
+
+    public Value get(int index) {
+        return (numbers != null) ? numbers.get(index) : elements.get(index);
+    }
+
+    // the generic form, unpacking numbers; a list falls back to it on its first non-number
+    private PersistentVector<Value> vector() {
+        return (numbers != null) ? numbers.toVector() : elements;
     }
 
     @Override
-    public RTResult addedTo(Value other) {
-        ListValue newList = this.copy();
-        newList.elements.add(other);
-        return new RTResult().success(newList);
+    public RTResult addedTo(Value other, RTResult res) {
+        NumericElements appended = (numbers != null) ? numbers.append(other)
+                                 : elements.isEmpty() ? NumericElements.of(other) : null;
+        if (appended != null) return res.success(withNumbers(appended));
+        return res.success(withElements(vector().append(other)));
     }
 
     @Override
-    public RTResult subbedBy(Value other) {
+    public RTResult subbedBy(Value other, RTResult res) {
         if (other instanceof NumberValue numberValue) {
-            ListValue newList = this.copy();
-            int index = (int) numberValue.value;
-            if (index >= 0 && index < newList.elements.size()) {
-                newList.elements.remove(index);
-                return new RTResult().success(newList);
+            long index = index(numberValue);
+            if (index >= 0 && index < this.size()) {
+                if (numbers != null) return res.success(withNumbers(numbers.without((int) index)));
+                return res.success(withElements(this.elements.without((int) index)));
             } else {
-                return new RTResult().failure(new RTError(
+                return res.failure(new RTError(
                         other.posStart, other.posEnd,
                         " Element at this index could not be removed from list because index is out of bounds",
                         this.context
                 ));
             }
         } else {
-            return new RTResult().failure(illegalOperation(other));
+            return res.failure(illegalOperation(other));
         }
     }
 
     @Override
-    public RTResult multedBy(Value other) {
+    public RTResult multedBy(Value other, RTResult res) {
         if (other instanceof ListValue listValue) {
-            ListValue newList = this.copy();
-            newList.elements.addAll(listValue.elements);
-            return new RTResult().success(newList);
+            if (listValue.size() == 0) return res.success(this.copy());
+            if (listValue.numbers != null) {
+                NumericElements joined = (numbers != null) ? numbers.appendAll(listValue.numbers)
+                                       : elements.isEmpty() ? listValue.numbers : null;
+                if (joined != null) return res.success(withNumbers(joined));
+            }
+            return res.success(withElements(this.vector().appendAll(listValue.vector())));
         } else {
-            return new RTResult().failure(illegalOperation(other));
+            return res.failure(illegalOperation(other));
         }
     }
 
     @Override
-    public RTResult divedBy(Value other) {
+    public RTResult divedBy(Value other, RTResult res) {
         if (other instanceof NumberValue numberValue) {
-            int index = (int) numberValue.value;
-            if (index >= 0 && index < this.elements.size()) {
-                return new RTResult().success(this.elements.get(index));
+            long index = index(numberValue);
+            if (index >= 0 && index < this.size()) {
+                return res.success(this.get((int) index));
             } else {
-                return new RTResult().failure(new RTError(
+                return res.failure(new RTError(
                         other.posStart, other.posEnd,
                         " Element at this index could not be retrieved from list because index is out of bounds",
                         this.context
                 ));
             }
         } else {
-            return new RTResult().failure(illegalOperation(other));
+            return res.failure(illegalOperation(other));
         }
     }
 
+    static long index(NumberValue numberValue) {
+        if (numberValue instanceof IntegerValue integerValue) return integerValue.intValue;
+        return (long) numberValue.value;
+    }
+
     @Override
     public ListValue copy() {
-        ListValue copy = new ListValue(this.elements);
-        copy.setPos(this.posStart, this.posEnd);
-        copy.setContext(this.context);
-        return copy;
+        return with(this.elements, this.numbers);
     }
 
     @Override
     public String toString() {
         StringBuilder result = new StringBuilder();
-        for (Value element : elements) {
+        for (int i = 0; i < size(); i++) {
             if (result.length() > 0) result.append(", ");
-            result.append(element.toString());
+            result.append(get(i).toString());
         }
         return result.toString();
     }
@@ -506,9 +972,9 @@ class ListValue extends Value
     @Override
     public String repr() {
         StringBuilder result = new StringBuilder("[");
-        for (Value element : elements) {
+        for (int i = 0; i < size(); i++) {
             if (result.length() > 1) result.append(", ");
-            result.append(element.repr());
+            result.append(get(i).repr());
         }
         result.append("]");
         return result.toString();
@@ -525,14 +991,16 @@ abstract class BaseFunction extends Value
     }
 
     public Context generateNewContext() {
+        return generateNewContext(null);
+    }
+
+    public Context generateNewContext(FrameLayout layout) {
         Context newContext = new Context(this.name, this.context, this.posStart);
-        newContext.setSymbolTable(new SymbolTable(newContext.parent.symbolTable));
+        newContext.setSymbolTable(new SymbolTable(newContext.parent.symbolTable, layout));
         return newContext;
     }
 
-    public RTResult checkArgs(List<String> argNames, List<Value> args) {
-        RTResult res = new RTResult();
-
+    public RTResult checkArgs(List<String> argNames, List<Value> args, RTResult res) {
         if (args.size() > argNames.size()) {
             return res.failure(new RTError(
                 this.posStart, this.posEnd,
@@ -552,18 +1020,19 @@ abstract class BaseFunction extends Value
         return res.success(null);
     }
 
+    // arguments are stored as they are: reading a parameter gives the value the reader's
+    // context, so setting this frame's here would only rewrite a value the caller may
+    // still hold, such as a list element
     public void populateArgs(List<String> argNames, List<Value> args, Context execCtx) {
+        FrameLayout layout = execCtx.symbolTable.layout;
         for (int i = 0; i < args.size(); i++) {
-            String argName = argNames.get(i);
-            Value argValue = args.get(i);
-            argValue.setContext(execCtx);
-            execCtx.symbolTable.set(argName, argValue);
+            execCtx.symbolTable.set((layout != null) ? layout.params[i] : -1, argNames.get(i), args.get(i));
         }
     }
 
     public RTResult checkAndPopulateArgs(List<String> argNames, List<Value> args, Context execCtx) {
-        RTResult res = new RTResult();
-        res.register(checkArgs(argNames, args));
+        RTResult res = execCtx.result;
+        res.register(checkArgs(argNames, args, res));
         if (res.shouldReturn()) return res;
         populateArgs(argNames, args, execCtx);
         return res.success(null);
@@ -578,6 +1047,9 @@ class Function extends BaseFunction
     public Node bodyNode;
     public List<String> argNames;
     public boolean should_return_null;
+    public CompiledCode compiledBody;
+    public FrameLayout layout;
+    public MemoTable memo; // set for tasks declared `memo`
 
     public Function(String name, Node bodyNode, List<String> argNames, boolean should_return_null) {
         super(name);
@@ -588,31 +1060,115 @@ class Function extends BaseFunction
 
     @Override
     public RTResult execute(List<Value> args) {
-        RTResult res = new RTResult();
+        return call(args, this.context, this.posStart, this.posEnd, true);
+    }
+
+    // entry from a call site whose inline cache holds this task: the value is not
+    // copied to carry the call's position, and the argument count is known to fit
+    public RTResult invoke(List<Value> args, Context caller, Node callNode) {
+        return call(args, caller, callNode.pos_start, callNode.pos_end, false);
+    }
+
+    /*
+     * A `give f(...)` that ends the body comes back as a tail call request instead of
+     * running f on top of this frame: the loop below sets up f's frame in place of
+     * the finished one and carries on, so tail recursion uses no Java stack and
+     * its frames drop out of the traceback; past maxTailCalls of them in a row the
+     * call fails, as a runaway one would otherwise never end. A memo task answers
+     * from its table before any frame is set up, and stores what it gives under
+     * the arguments it was entered with.
+     */
+    private RTResult call(List<Value> args, Context caller, Position callStart, Position callEnd, boolean checkArgs) {
+        MemoTable memo = this.memo;
+        List<Object> memoKey = (memo != null) ? MemoTable.key(args) : null;
+        if (memoKey != null) {
+            Value known = memo.lookup(memoKey);
+            if (known != null) return new RTResult().success(known);
+        }
+
         Interpreter interpreter = new Interpreter();
-        Context execCtx = this.generateNewContext();
+        Function function = this;
+        if (caller.depth >= caller.maxDepth) {
+            return new RTResult().failure(new LimitError(
+                callStart, callEnd,
+                "Maximum recursion depth exceeded",
+                caller
+            ));
+        }
+        Context execCtx = layout.frames.acquire(this.name, caller, callStart, caller.symbolTable);
+        int tailCalls = 0;
+
+        while (true) {
+            RTResult res = execCtx.result;
+            Value value = null;
+            if (checkArgs) {
+                res.register(function.checkAndPopulateArgs(function.argNames, args, execCtx));
+            } else {
+                function.populateArgs(function.argNames, args, execCtx);
+            }
+            if (!res.shouldReturn()) {
+                if (function.compiledBody != null) {
+                    value = res.register(function.compiledBody.execute(execCtx));
+                } else {
+                    value = res.register(interpreter.visit(function.bodyNode, execCtx));
+                }
+            }
 
-        res.register(checkAndPopulateArgs(argNames, args, execCtx));
-        if (res.shouldReturn()) return res;
+            if (res.tailCallee != null) {
+                Function callee = res.tailCallee;
+                if (++tailCalls > caller.maxTailCalls) {
+                    return res.failure(new LimitError(
+                        callee.posStart, callee.posEnd,
+                        "Maximum tail call count exceeded",
+                        execCtx
+                    ));
+                }
+                // the arguments were made in the finished frame: copies without its context
+                // let it go once the callee has stopped reading through it
+                args = res.tailArgs;
+                args.replaceAll(arg -> arg.copy().setContext(null));
+                execCtx = callee.tailContext(execCtx);
+                function = callee;
+                checkArgs = true;
+                continue;
+            }
 
-        Value value = res.register(interpreter.visit(bodyNode, execCtx));
-        if (res.shouldReturn() && res.funcReturnValue == null) return res;
+            Value retValue;
+            if (tailCalls > 0 && res.err != null && !(res.err instanceof LimitError)) {
+                // the give that made this tail call drops the error, and was the last
+                // thing its task ran, so that task gives nothing
+                retValue = NumberValue.NULL;
+            } else if (res.shouldReturn() && res.funcReturnValue == null) {
+                return res;
+            } else if (function.should_return_null) {
+                retValue = value;
+            } else if (res.funcReturnValue != null) {
+                retValue = res.funcReturnValue;
+            } else {
+                retValue = NumberValue.NULL;
+            }
 
-        Value retValue;
-        if (should_return_null) {
-            retValue = value;
-        } else if (res.funcReturnValue != null) {
-            retValue = res.funcReturnValue;
-        } else {
-            retValue = NumberValue.NULL;
+            if (memoKey != null) memo.store(memoKey, retValue);
+            // the caller reads the result before it makes another call
+            function.layout.frames.release(execCtx, retValue);
+            return res.success(retValue);
         }
+    }
 
-        return res.success(retValue);
+    // the frame of a tail call made by the task running in finished: it is entered
+    // from where finished was, and still sees finished's variables when it was
+    // called from there
+    private Context tailContext(Context finished) {
+        SymbolTable parentTable = (this.context == finished) ? finished.symbolTable.freeze() : this.context.symbolTable;
+        return layout.frames.acquire(this.name, finished.parent, finished.parentEntryPos, parentTable);
     }
 
     @Override
     public Value copy() {
         Function copy = new Function(this.name, this.bodyNode, this.argNames, this.should_return_null);
+        copy.compiledBody = this.compiledBody;
+        copy.layout = this.layout;
+        copy.memo = this.memo;
         copy.setContext(this.context);
         copy.setPos(this.posStart, this.posEnd);
         return copy;
@@ -1,38 +1,215 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Scanner;
 import py4j.GatewayServer;
 
 public class shell {
 
     String text;
+    String engine = "interpreter";
+    int max_depth = Context.DEFAULT_MAX_DEPTH;
+    int max_tail_calls = Context.DEFAULT_MAX_TAIL_CALLS;
+    List<MemoTable> memo_tables = List.of(); // of the last program run
+    boolean dump_ast = false;
+    boolean dump_code = false;
+    // programs run before, kept across calls so resubmitting one skips lexing and parsing
+    final ProgramCache cache = new ProgramCache();
+    // the last program parsed, so an edited one only parses again what changed
+    final IncrementalParser parser = new IncrementalParser("<stdin>");
+
+    // Java stack set aside for each nested task call: programs run on a thread of
+    // their own sized from max_depth, so the limit rather than the JVM's default
+    // stack decides how deep a non-tail recursion can go
+    static final long STACK_BYTES_PER_CALL = 16 * 1024;
+    static final long MAX_STACK_BYTES = 2L << 30;
+
+    // defined ahead of every program
+    static final String PRELUDE = "task print(a); give a; enclose;";
+
     public void set_text(String text)
     {
-        String print = "task print(a); give a; enclose;";
-        this.text = print + text;
+        this.text = PRELUDE + text;
+    }
+
+    // "interpreter" walks the AST, "closure" runs it as pre-resolved closures,
+    // "bytecode" runs it as a generated JVM class, "register" runs it as
+    // register code in one dispatch loop
+    public void set_engine(String engine)
+    {
+        this.engine = engine;
+    }
+
+    // deepest nesting of task calls before a program fails with a runtime error;
+    // tail calls (`give f(...)`) replace their caller's frame and do not count
+    public void set_max_depth(int max_depth)
+    {
+        this.max_depth = max_depth;
+    }
+
+    // how many tail calls one call may run in a row before the program fails with a
+    // runtime error, so a runaway tail recursion stops too
+    public void set_max_tail_calls(int max_tail_calls)
+    {
+        this.max_tail_calls = max_tail_calls;
+    }
+
+    // prints each program's tree once the Optimizer has rewritten it
+    public void set_dump_ast(boolean dump_ast)
+    {
+        this.dump_ast = dump_ast;
+    }
+
+    // prints the register code of each program the "register" engine runs
+    public void set_dump_code(boolean dump_code)
+    {
+        this.dump_code = dump_code;
+    }
+
+    // where parsed programs are kept between runs of the gateway; "" keeps them in memory
+    // only, as they are until this is set. Trees are read back from it as they are found, so
+    // it should be a directory only this user can write to
+    public void set_cache_dir(String directory)
+    {
+        cache.setDirectory(directory.isEmpty() ? null : Path.of(directory));
+    }
+
+    // how often a program was found already parsed
+    public String cache_stats()
+    {
+        return cache.toString();
+    }
+
+    // how many top-level statements of the last program parsed were parsed again
+    public String parse_stats()
+    {
+        return parser.toString();
+    }
+
+    // hits and misses of each `memo` task in the last program run, one per line
+    public String memo_stats()
+    {
+        StringBuilder stats = new StringBuilder();
+        for (MemoTable table : memo_tables) stats.append(table).append('\n');
+        return stats.toString();
+    }
+
+    static CompiledCode compile(Node node, String engine)
+    {
+        if(engine.equals("register"))
+            return RegisterCompiler.compile(node);
+        else if(engine.equals("bytecode"))
+            return BytecodeCompiler.compile(node);
+        else if(engine.equals("closure"))
+            return ClosureCompiler.compile(node);
+        else
+            return context -> new Interpreter().visit(node, context);
+    }
+
+    // a program compiled once per engine and then run again as it is
+    static RTResult run(ProgramCache.Entry program, Context context, String engine, boolean dump_code)
+    {
+        CompiledCode code = program.compiled.get(engine);
+        if(code == null)
+        {
+            code = compile(program.root, engine);
+            program.compiled.put(engine, code);
+        }
+        if(dump_code && code instanceof RegisterProgram registerProgram) System.out.print(registerProgram.disassemble());
+        return code.execute(context);
+    }
+
+    static RTResult evaluate(ProgramCache.Entry program, Context context, String engine, boolean dump_code)
+    {
+        Node node = program.root;
+        RTResult[] result = new RTResult[1];
+        Throwable[] failure = new Throwable[1];
+        Thread evaluator = new Thread(null, () -> {
+            try {
+                result[0] = run(program, context, engine, dump_code);
+            } catch (StackOverflowError overflow) {
+                // a call chain the depth count does not see, e.g. through a stale context
+                result[0] = new RTResult().failure(new LimitError(node.pos_start, node.pos_end, "Maximum recursion depth exceeded", context));
+            } catch (RuntimeException | Error e) {
+                failure[0] = e;
+            }
+        }, "flex", Math.min(STACK_BYTES_PER_CALL * context.maxDepth, MAX_STACK_BYTES));
+
+        evaluator.start();
+        try {
+            evaluator.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while evaluating", e);
+        }
+        if(failure[0] instanceof RuntimeException e) throw e;
+        if(failure[0] instanceof Error e) throw e;
+        return result[0];
     }
 
     public String get_result()
+    {
+        String key = ProgramCache.key(text);
+        ProgramCache.Entry program = cache.get(key);
+        if(program == null)
+        {
+            Node root = cache.load(key, "<stdin>", text);
+            if(root == null)
+            {
+                ParseResult ast = parser.parse(text);
+                if(ast.err != null) return(ast.err.repr());
+                root = ast.node;
+                cache.store(key, root);
+            }
+            program = cache.put(key, Optimizer.optimize(root));
+        }
+        return execute(program);
+    }
+
+    // runs the program in the file at path, lexing and parsing it as it is read so
+    // neither its text nor its tokens are held whole; it is neither cached nor kept
+    // for an edit, and errors in it show no source line
+    public String run_file(String path) throws IOException
+    {
+        ParseResult ast;
+        try(InputStream file = Files.newInputStream(Path.of(path)))
+        {
+            InputStream program = new SequenceInputStream(new ByteArrayInputStream(PRELUDE.getBytes(StandardCharsets.UTF_8)), file);
+            TokenWindow tokens = new TokenWindow(new Tokenizer(path, new InputStreamReader(program, StandardCharsets.UTF_8)));
+            ast = new Parser(tokens, new ConstantPool()).parse();
+            // the whole text is lexed before parsing anywhere else, so its errors come first
+            if(tokens.drain() != null) return(tokens.error.repr());
+        }
+        catch(UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+        if(ast.err != null) return(ast.err.repr());
+        return execute(new ProgramCache.Entry(Optimizer.optimize(ast.node)));
+    }
+
+    private String execute(ProgramCache.Entry program)
     {
         SymbolTable global_symbol_table = new SymbolTable();
         Context context = new Context("<program>");
         context.symbolTable = global_symbol_table;
+        context.maxDepth = max_depth;
+        context.maxTailCalls = max_tail_calls;
 
-        Tokenizer l = new Tokenizer("<stdin>", text);
-            Tokenizer tokens = l.make_tokens();
-            if(tokens.error != null) return(tokens.error.repr());
-            else{
-                //System.out.println(tokens.repr());
-                Parser p = new Parser(tokens.toks);
-                ParseResult ast = p.parse();
-                if(ast.err != null) return(ast.err.repr());
-                else{
-                    //System.out.println(ast.node.toString());
-                    Interpreter interpreter = new Interpreter();
-                    RTResult result = interpreter.visit(ast.node, context);
-                    if(result.err != null) return(result.err.repr());
-                    else return(((Object)result.value).toString());
-                }
-            }
+        if(dump_ast) System.out.println(program.root.toString());
+        memo_tables = Resolver.resolve(program.root);
+        RTResult result = evaluate(program, context, engine, dump_code);
+        if(result.err != null) return(result.err.repr());
+        else return(((Object)result.value).toString());
     }
+
     public static void main(String[] args) {
 
         GatewayServer g = new GatewayServer(new shell(), 25530);
@@ -65,9 +242,10 @@ public class shell {
                 ParseResult ast = p.parse();
                 if(ast.err != null) System.out.println(ast.err.repr());
                 else{
+                    ast.node = Optimizer.optimize(ast.node);
                     System.out.println(ast.node.toString());
-                    Interpreter interpreter = new Interpreter();
-                    RTResult result = interpreter.visit(ast.node, context);
+                    Resolver.resolve(ast.node);
+                    RTResult result = evaluate(new ProgramCache.Entry(ast.node), context, "interpreter", false);
                     if(result.err != null) System.out.println(result.err.repr());
                     else System.out.println(result.value);
                 }